@@ -0,0 +1,518 @@
+package Analyzers;
+
+import Bean.*;
+import DAO.*;
+import Utilities.AnalysisExecutor;
+import Utilities.ArtifactSegments;
+import Utilities.MultiDigest;
+import Utilities.ReportCodec;
+import Utilities.ReportStore;
+import Utilities.ResponseBytes;
+import Utilities.ResultCache;
+import Utilities.ReusableBuffer;
+import Utilities.StringIndex;
+import Utilities.Version;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Full analysis of one uploaded sample: runs the analyzers, caches the report and queues
+ * the rows and the report and artifacts files on the write-behind journal. Shared by the synchronous upload
+ * and the background jobs, which follow its progress through a {@link StageListener}.
+ *
+ * Each stage has its own STAGE_VERSION, declared by its analyzer, and a fingerprint of that
+ * version, the sample's SHA-256 and any other input (file name, extraction settings). The
+ * report records both under "stages". When the analyzer version is bumped, a stage whose
+ * fingerprint matches the sample's report from the previous version is copied from it
+ * instead of being run again; bump a stage's version when its output changes.
+ */
+public class AnalysisPipeline {
+
+    public static final String STAGE_PERSIST = "persist";
+    public static final String STAGE_SAVE = "save";
+    public static final String STAGE_ARTIFACTS = "artifacts";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectWriter prettyWriter = objectMapper.writerWithDefaultPrettyPrinter();
+
+    /**
+     * Receives the state changes of the pipeline stages, from whichever thread runs them.
+     */
+    public interface StageListener {
+        StageListener NONE = (stage, state) -> {};
+
+        String PENDING = "pending";
+        String QUEUED = "queued";
+        String RUNNING = "running";
+        String DONE = "done";
+        String FAILED = "failed";
+
+        void onStage(String stage, String state);
+    }
+
+    /**
+     * Outcome of a finished analysis: the pretty-printed report as a response body, and the
+     * generated file id once the write-behind journal has stored the analysis.
+     */
+    public static final class Report {
+        private final CompletableFuture<Integer> stored;
+        private final ResponseBytes body;
+        private final String sha256Hash;
+        private final String artifactsFilePath;
+
+        private Report(CompletableFuture<Integer> stored, ResponseBytes body, String sha256Hash,
+                       String artifactsFilePath) {
+            this.stored = stored;
+            this.body = body;
+            this.sha256Hash = sha256Hash;
+            this.artifactsFilePath = artifactsFilePath;
+        }
+
+        /**
+         * The file id, or null while the analysis is still waiting in the journal.
+         */
+        public Integer getFileId() {
+            return stored.isCompletedExceptionally() ? null : stored.getNow(null);
+        }
+
+        public CompletableFuture<Integer> getStored() {
+            return stored;
+        }
+
+        public ResponseBytes getBody() {
+            return body;
+        }
+
+        public String getSha256Hash() {
+            return sha256Hash;
+        }
+
+        /**
+         * The artifacts document, on disk before the analysis is journaled.
+         */
+        public String getArtifactsFilePath() {
+            return artifactsFilePath;
+        }
+    }
+
+    // Analyses in progress, keyed by sha1 + 'v' + analyzer version
+    private static final ConcurrentHashMap<String, CompletableFuture<Report>> inFlight = new ConcurrentHashMap<>();
+
+    private final FileInfoDao fileInfoDao;
+    private final StageListener listener;
+    // Stage name -> version and fingerprint, in report order
+    private final Map<String, Object> stageRecords = new LinkedHashMap<>();
+
+    public AnalysisPipeline(FileInfoDao fileInfoDao, StageListener listener) {
+        this.fileInfoDao = fileInfoDao;
+        this.listener = listener;
+    }
+
+    /**
+     * Analysis of the sample currently running for the SHA1 at the current analyzer
+     * version, or null when there is none.
+     */
+    public static CompletableFuture<Report> inFlight(String sha1Hash) {
+        return inFlight.get(sha1Hash + 'v' + Version.getAnalyzerVersion());
+    }
+
+    /**
+     * Analyzes the sample unless the same SHA1 is already being analyzed, in which case
+     * this waits for and returns that analysis instead. The winner re-checks the cache and
+     * the database once it holds the slot, since an analysis may have finished in between.
+     */
+    public Report run(PEImage image, String fileName, Map<String, String> hashes) throws Exception {
+        String sha1Hash = hashes.get(MultiDigest.SHA1);
+        String key = sha1Hash + 'v' + Version.getAnalyzerVersion();
+
+        CompletableFuture<Report> claim = new CompletableFuture<>();
+        CompletableFuture<Report> running = inFlight.putIfAbsent(key, claim);
+        if (running != null) {
+            Report shared = AnalysisExecutor.await(running);
+            for (String stage : stageNames()) {
+                listener.onStage(stage, StageListener.DONE);
+            }
+            return shared;
+        }
+
+        try {
+            Report report = findExisting(sha1Hash);
+            if (report == null) {
+                report = analyze(image, fileName, hashes, sha1Hash);
+            }
+            claim.complete(report);
+            // Later uploads keep sharing this report until it is in the database
+            report.stored.whenComplete((fileId, failure) -> inFlight.remove(key, claim));
+            return report;
+        } catch (Exception | Error e) {
+            claim.completeExceptionally(e);
+            inFlight.remove(key, claim);
+            throw e;
+        }
+    }
+
+    private Report findExisting(String sha1Hash) throws IOException, SQLException {
+        int analyzerVersion = Version.getAnalyzerVersion();
+        FileRecord record = fileInfoDao.getFileRecord(sha1Hash, analyzerVersion);
+        if (record == null) {
+            return null;
+        }
+        String key = sha1Hash + 'v' + analyzerVersion;
+        ResponseBytes body = ResultCache.getReport(key);
+        if (body == null) {
+            body = ReportCodec.readResponse(Paths.get(record.getJsonFilePath()));
+            ResultCache.putReport(key, body);
+        }
+        return new Report(CompletableFuture.completedFuture(record.getFileId()), body,
+                record.getSha256Hash(), record.getArtifactsFilePath());
+    }
+
+    private Report analyze(PEImage image, String fileName, Map<String, String> hashes, String sha1Hash)
+            throws Exception {
+        // Report paths follow from the content hash, so the Files row is written complete
+        int analyzerVersion = Version.getAnalyzerVersion();
+        String sha256Hash = hashes.get(MultiDigest.SHA256);
+        Path analysisFile = ReportStore.reportPath(sha256Hash, analyzerVersion);
+        Path artifactsFile = ReportStore.artifactsPath(sha256Hash, analyzerVersion);
+        Path segmentsFile = ReportStore.artifactSegmentsPath(sha256Hash, analyzerVersion);
+
+        PreviousReport previous = PreviousReport.find(fileInfoDao, sha1Hash, analyzerVersion);
+        AnalysisOutcome outcome = performAnalysis(image, fileName, hashes, artifactsFile, previous);
+        // Serialized once; these bytes are the response, the cached entry and the saved report
+        byte[] jsonResponse = serialize(outcome.results);
+
+        ResponseBytes body = ResponseBytes.of(jsonResponse);
+
+        // Add to cache; dropped again if the analysis is dead-lettered
+        ResultCache.putReport(sha1Hash + 'v' + analyzerVersion, body);
+
+        // Hand the files and rows to the write-behind journal; the response does not wait for them
+        PendingAnalysis pending = new PendingAnalysis(sha1Hash, analyzerVersion, outcome.fileInfo,
+                outcome.staticInfo, outcome.dataDirectories, outcome.sections, outcome.authenticodeInfo,
+                analysisFile.toString(), artifactsFile.toString(),
+                ReportCodec.encode(body), null, segmentsFile.toString(), outcome.artifactSegments);
+        CompletableFuture<Integer> stored = WriteBehindJournal.getInstance().append(pending);
+        listener.onStage(STAGE_SAVE, StageListener.QUEUED);
+        listener.onStage(STAGE_PERSIST, StageListener.QUEUED);
+        stored.whenComplete((fileId, failure) -> {
+            String state = failure == null ? StageListener.DONE : StageListener.FAILED;
+            listener.onStage(STAGE_SAVE, state);
+            listener.onStage(STAGE_PERSIST, state);
+            if (failure != null) {
+                // Dead-lettered: without its rows the sample has to be analyzed again
+                ResultCache.removeReport(sha1Hash + 'v' + analyzerVersion);
+            }
+        });
+
+        return new Report(stored, body, sha256Hash, artifactsFile.toString());
+    }
+
+    /**
+     * Stage names in report order, followed by the save and persistence steps.
+     */
+    public static List<String> stageNames() {
+        return List.of("pe_fileinfo", "static_info", "data_directories", "imports", "exports",
+                "sections", "resources", "authenticode_info", STAGE_ARTIFACTS, STAGE_SAVE, STAGE_PERSIST);
+    }
+
+    /**
+     * Runs the analysis stages on the shared analysis pool. Every stage only reads
+     * the image, so they all start at once.
+     */
+    private AnalysisOutcome performAnalysis(PEImage image, String fileName, Map<String, String> hashes,
+                                            Path artifactsFile, PreviousReport previous) throws Exception {
+        String sample = hashes.get(MultiDigest.SHA256);
+        // Analysis stages
+        CompletableFuture<PEFileInfo> fileInfo = stage("pe_fileinfo", PEFileAnalyzer.STAGE_VERSION,
+                sample + "|" + fileName, previous, from -> from.read("pe_fileinfo", new TypeReference<PEFileInfo>() {}),
+                () -> new PEFileAnalyzer(image.getBuffer(), fileName, hashes).getPEFileInfo());
+        CompletableFuture<PEStaticInfo> staticInfo = stage("static_info", PEInfoParser.STAGE_VERSION,
+                sample, previous, from -> from.read("static_info", new TypeReference<PEStaticInfo>() {}),
+                () -> new PEInfoParser().getPEInfo(image));
+        CompletableFuture<List<DataDirectory>> dataDirectories = stage("data_directories",
+                PEDataDirectoryAnalyzer.STAGE_VERSION, sample, previous,
+                from -> from.read("data_directories", new TypeReference<List<DataDirectory>>() {}),
+                () -> new PEDataDirectoryAnalyzer(image).getDirectories());
+        // Only reported, so a copied stage can stay a JSON tree
+        CompletableFuture<Object> imports = stage("imports", PEImportsParser.STAGE_VERSION,
+                sample, previous, from -> from.node("imports"),
+                () -> new PEImportsParser().parse(image));
+        CompletableFuture<Object> exports = stage("exports", PEExportsParser.STAGE_VERSION,
+                sample, previous, from -> from.node("exports"),
+                () -> new PEExportsParser().parse(image));
+        CompletableFuture<List<PESection>> sections = stage("sections", PESectionAnalyzer.STAGE_VERSION,
+                sample, previous, from -> from.read("sections", new TypeReference<List<PESection>>() {}),
+                () -> new PESectionAnalyzer(image).getSections());
+        CompletableFuture<Object> resources = stage("resources", PEResourceAnalyzer.STAGE_VERSION,
+                sample, previous, from -> from.node("resources"),
+                () -> new PEResourceAnalyzer(image).getResources());
+        // The certificates do not survive the trip through JSON, so this stage always runs
+        CompletableFuture<PEAuthenticodeInfo> authenticodeInfo = stage("authenticode_info",
+                PEAuthenticodeVerifier.STAGE_VERSION, sample, previous, null, () -> {
+            PEAuthenticodeVerifier authenticodeVerifier = new PEAuthenticodeVerifier();
+            authenticodeVerifier.analyze(image);
+            return authenticodeVerifier.getPeAuthenticodeInfo();
+        });
+        CompletableFuture<byte[]> artifacts = stage(STAGE_ARTIFACTS, PEArtifactExtractor.STAGE_VERSION,
+                sample + "|" + PEArtifactExtractor.configuration(), previous,
+                from -> copyArtifacts(from, sample, artifactsFile),
+                () -> extractArtifacts(image, artifactsFile,
+                        ReportStore.stringIndexPath(sample, Version.getAnalyzerVersion())));
+
+        AnalysisExecutor.await(CompletableFuture.allOf(fileInfo, staticInfo, dataDirectories, imports,
+                exports, sections, resources, authenticodeInfo, artifacts));
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("filename", fileName);
+        results.put("analyzerVersion", Version.getAnalyzerVersion());
+        results.put("pe_fileinfo", fileInfo.join());
+        results.put("static_info", staticInfo.join());
+        results.put("data_directories", dataDirectories.join());
+        results.put("imports", imports.join());
+        results.put("exports", exports.join());
+        results.put("sections", sections.join());
+        results.put("resources", resources.join());
+        results.put("authenticode_info", authenticodeInfo.join());
+        results.put("stages", stageRecords);
+
+        return new AnalysisOutcome(fileInfo.join(), staticInfo.join(), dataDirectories.join(),
+                sections.join(), authenticodeInfo.join(), artifacts.join(), results);
+    }
+
+    /**
+     * Takes a stage's output from the previous report when the stage's fingerprint is
+     * unchanged there, and runs the stage otherwise or when the output cannot be taken over.
+     */
+    private <T> CompletableFuture<T> stage(String name, int version, String inputs, PreviousReport previous,
+                                           Reuse<T> reuse, Callable<T> task) {
+        String fingerprint = fingerprint(name + "|" + version + "|" + inputs);
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("version", version);
+        record.put("fingerprint", fingerprint);
+        stageRecords.put(name, record);
+        if (previous == null || reuse == null || !previous.hasStage(name, fingerprint)) {
+            return stage(name, task);
+        }
+        return stage(name, () -> {
+            try {
+                T value = reuse.from(previous);
+                if (value != null) {
+                    return value;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not reuse stage " + name + " of analyzer version " + previous.version
+                        + ", running it: " + e.getMessage());
+            }
+            return task.call();
+        });
+    }
+
+    private <T> CompletableFuture<T> stage(String name, Callable<T> task) {
+        listener.onStage(name, StageListener.PENDING);
+        return AnalysisExecutor.stage(() -> {
+            listener.onStage(name, StageListener.RUNNING);
+            try {
+                T value = task.call();
+                listener.onStage(name, StageListener.DONE);
+                return value;
+            } catch (Exception | Error e) {
+                listener.onStage(name, StageListener.FAILED);
+                throw e;
+            }
+        });
+    }
+
+    private static String fingerprint(String stageInputs) {
+        return MultiDigest.compute(stageInputs.getBytes(StandardCharsets.UTF_8), MultiDigest.SHA256)
+                .get(MultiDigest.SHA256);
+    }
+
+    /**
+     * Output of a stage taken from an earlier report, or null to run the stage after all.
+     */
+    private interface Reuse<T> {
+        T from(PreviousReport previous) throws IOException;
+    }
+
+    /**
+     * The newest stored report of a sample from an earlier analyzer version, if it recorded
+     * its stages.
+     */
+    private static final class PreviousReport {
+        private final int version;
+        private final JsonNode report;
+
+        private PreviousReport(int version, JsonNode report) {
+            this.version = version;
+            this.report = report;
+        }
+
+        /**
+         * The newest earlier version with a stored Files row. Report files left behind by an
+         * analysis whose rows were never stored are not trusted.
+         */
+        private static PreviousReport find(FileInfoDao fileInfoDao, String sha1Hash, int analyzerVersion) {
+            for (int version = analyzerVersion - 1; version > 0; version--) {
+                Path path = null;
+                try {
+                    FileRecord record = fileInfoDao.getFileRecord(sha1Hash, version);
+                    if (record == null) {
+                        continue;
+                    }
+                    path = Paths.get(record.getJsonFilePath());
+                    if (!Files.isRegularFile(path)) {
+                        continue;
+                    }
+                    JsonNode report = objectMapper.readTree(ReportCodec.read(path));
+                    return report.has("stages") ? new PreviousReport(version, report) : null;
+                } catch (IOException | SQLException e) {
+                    System.err.println("Could not read earlier report " + (path == null ? "v" + version : path)
+                            + " for " + sha1Hash + ": " + e.getMessage());
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private boolean hasStage(String name, String fingerprint) {
+            return fingerprint.equals(report.path("stages").path(name).path("fingerprint").asText(null));
+        }
+
+        private JsonNode node(String name) {
+            JsonNode node = report.get(name);
+            return node == null || node.isNull() ? null : node;
+        }
+
+        private <T> T read(String name, TypeReference<T> type) throws IOException {
+            JsonNode node = node(name);
+            return node == null ? null : objectMapper.readerFor(type).readValue(node);
+        }
+    }
+
+    /**
+     * Carries the previous version's artifacts document over to this version, rewriting only
+     * its analyzerVersion, and takes its segments and string index as they are. A missing
+     * string index is built on the first search instead.
+     * @return the segments, or null when the earlier files are gone
+     */
+    private static byte[] copyArtifacts(PreviousReport previous, String sha256Hash, Path artifactsFile)
+            throws IOException {
+        Path source = ReportStore.artifactsPath(sha256Hash, previous.version);
+        Path segments = ReportStore.artifactSegmentsPath(sha256Hash, previous.version);
+        if (!Files.isRegularFile(source) || !Files.isRegularFile(segments)) {
+            return null;
+        }
+        ReportStore.writeAtomically(artifactsFile, output -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(
+                    ReportCodec.decoder(Files.newInputStream(source)));
+                 JsonGenerator generator = prettyWriter.createGenerator(ReportCodec.encoder(output))) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("Not an artifacts document: " + source);
+                }
+                generator.writeStartObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    generator.writeFieldName(field);
+                    if ("analyzerVersion".equals(field)) {
+                        generator.writeNumber(Version.getAnalyzerVersion());
+                    } else {
+                        generator.copyCurrentStructure(parser);
+                    }
+                }
+                generator.writeEndObject();
+            }
+        });
+        Path stringIndex = ReportStore.stringIndexPath(sha256Hash, previous.version);
+        if (Files.isRegularFile(stringIndex)) {
+            ReportStore.writeAtomically(ReportStore.stringIndexPath(sha256Hash, Version.getAnalyzerVersion()),
+                    output -> Files.copy(stringIndex, output));
+        }
+        return Files.readAllBytes(segments);
+    }
+
+    private static final class AnalysisOutcome {
+        private final PEFileInfo fileInfo;
+        private final PEStaticInfo staticInfo;
+        private final List<DataDirectory> dataDirectories;
+        private final List<PESection> sections;
+        private final PEAuthenticodeInfo authenticodeInfo;
+        private final byte[] artifactSegments;
+        private final Map<String, Object> results;
+
+        private AnalysisOutcome(PEFileInfo fileInfo, PEStaticInfo staticInfo, List<DataDirectory> dataDirectories,
+                                List<PESection> sections, PEAuthenticodeInfo authenticodeInfo,
+                                byte[] artifactSegments, Map<String, Object> results) {
+            this.fileInfo = fileInfo;
+            this.staticInfo = staticInfo;
+            this.dataDirectories = dataDirectories;
+            this.sections = sections;
+            this.authenticodeInfo = authenticodeInfo;
+            this.artifactSegments = artifactSegments;
+            this.results = results;
+        }
+    }
+
+    /**
+     * Streams the artifacts document straight into the store, so the extracted strings are
+     * generated while they are written instead of being held as one string. The document is
+     * forced to disk before the analysis is journaled, so the journal does not carry it.
+     * @return the same artifacts split per section and type, for paged reads
+     */
+    private byte[] extractArtifacts(PEImage image, Path artifactsFile, Path stringIndexFile) throws IOException {
+        ExtractStrings extractStrings = new ExtractStrings(image);
+        //All artifacts
+        PEArtifactExtractor artifactExtractor = new PEArtifactExtractor(image, extractStrings);
+        Map<String, List<Map<String, List<String>>>> structured = artifactExtractor.getStructuredArtifacts();
+        ReportStore.writeAtomically(artifactsFile, output -> {
+            try (JsonGenerator generator = prettyWriter.createGenerator(ReportCodec.encoder(output))) {
+                generator.writeStartObject();
+                generator.writeNumberField("analyzerVersion", Version.getAnalyzerVersion());
+                generator.writeFieldName("artifacts");
+                generator.writeObject(structured);
+                //All Extracted strings from exe file
+                generator.writeFieldName("extractedStrings");
+                generator.writeString(extractStrings.allStringsReader(), -1);
+                //Where the interesting-string keywords occur, with the category of each
+                generator.writeFieldName("keywordHits");
+                generator.writeObject(InterestingKeywords.get().find(extractStrings.getStringTable()));
+                generator.writeEndObject();
+            }
+        });
+        // Lets regex searches skip the lines that cannot match
+        ReportStore.writeAtomically(stringIndexFile,
+                output -> StringIndex.write(extractStrings.allStringsReader(), output));
+        return ArtifactSegments.encode(ArtifactSegments.fromStructured(structured));
+    }
+
+    /**
+     * Pretty-prints a document through this thread's reusable buffer.
+     */
+    private static byte[] serialize(Object document) throws IOException {
+        ReusableBuffer buffer = ReusableBuffer.acquire();
+        try {
+            prettyWriter.writeValue(buffer, document);
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+}
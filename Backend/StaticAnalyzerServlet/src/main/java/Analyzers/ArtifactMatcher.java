@@ -0,0 +1,374 @@
+package Analyzers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds all artifact types of one text (strings, one per line) in a single left-to-right
+ * pass. Every type needs some literal to be present, "://" for URLs, "@" for email
+ * addresses, a verb for API names and so on; a keyword automaton reports those literals
+ * for each line, and a type's pattern then only runs on the lines holding one of its
+ * literals. Most lines never reach a regex.
+ *
+ * The result is the same as running each pattern over the whole text: only registry keys
+ * can run over a line break, and they are followed char by char from line to line.
+ */
+public class ArtifactMatcher implements KeywordAutomaton.Hits {
+
+    private static final String[] TYPES = {"urls", "filePaths", "ipAddresses", "emailAddresses",
+            "registryKeys", "domains", "apiCalls", "metadata", "interestingStrings"};
+    private static final int URLS = 0;
+    private static final int FILE_PATHS = 1;
+    private static final int IP_ADDRESSES = 2;
+    private static final int EMAIL_ADDRESSES = 3;
+    private static final int REGISTRY_KEYS = 4;
+    private static final int DOMAINS = 5;
+    private static final int API_CALLS = 6;
+    private static final int METADATA = 7;
+    private static final int INTERESTING_STRINGS = 8;
+
+    // Regex patterns for artifact detection, by type; registry keys are matched by hand
+    private static final Pattern[] PATTERNS = new Pattern[TYPES.length];
+    static {
+        PATTERNS[URLS] = Pattern.compile(
+                "(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]");
+        PATTERNS[FILE_PATHS] = Pattern.compile(
+                "(?i)\\b[a-z]:\\\\(?:[^\\\\/:*?\"<>|\\r\\n]+\\\\)*[^\\\\/:*?\"<>|\\r\\n]*");
+        PATTERNS[IP_ADDRESSES] = Pattern.compile(
+                "\\b(?:\\d{1,3}\\.){3}\\d{1,3}\\b");
+        PATTERNS[EMAIL_ADDRESSES] = Pattern.compile(
+                "[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,6}");
+        PATTERNS[DOMAINS] = Pattern.compile(
+                "(?:[a-z0-9](?:[a-z0-9-]{0,61}[a-z0-9])?\\.)+[a-z0-9][a-z0-9-]{0,61}[a-z0-9]",
+                Pattern.CASE_INSENSITIVE);
+        PATTERNS[API_CALLS] = Pattern.compile(
+                "\\b(?:Create|Open|Read|Write|Close|Delete|Find|Get|Set|Send|Receive|Put)[A-Z][a-zA-Z]+\\b",
+                Pattern.CASE_INSENSITIVE);
+        PATTERNS[METADATA] = Pattern.compile(
+                "\\b(?:CompanyName|FileDescription|FileVersion|InternalName|LegalCopyright|" +
+                        "OriginalFilename|ProductName|ProductVersion|Assembly Version|BuildDate)\\b",
+                Pattern.CASE_INSENSITIVE);
+    }
+
+    private static final String REGISTRY_PREFIX = "HKEY_";
+
+    // The literals each type needs, and the type of each keyword
+    private static final KeywordAutomaton ANCHORS;
+    private static final int[] ANCHOR_TYPES;
+    static {
+        KeywordAutomaton.Builder anchors = new KeywordAutomaton.Builder();
+        InterestingKeywords keywords = InterestingKeywords.get();
+        int[] types = new int[64 + keywords.size()];
+        types[anchors.add("://", false)] = URLS;
+        types[anchors.add(":\\", false)] = FILE_PATHS;
+        for (char digit = '0'; digit <= '9'; digit++) {
+            types[anchors.add(digit + ".", false)] = IP_ADDRESSES;
+        }
+        types[anchors.add("@", false)] = EMAIL_ADDRESSES;
+        types[anchors.add(REGISTRY_PREFIX, true)] = REGISTRY_KEYS;
+        types[anchors.add(".", false)] = DOMAINS;
+        for (String verb : new String[]{"Create", "Open", "Read", "Write", "Close", "Delete", "Find", "Get",
+                "Set", "Send", "Receive", "Put"}) {
+            types[anchors.add(verb, true)] = API_CALLS;
+        }
+        for (String name : new String[]{"CompanyName", "FileDescription", "FileVersion", "InternalName",
+                "LegalCopyright", "OriginalFilename", "ProductName", "ProductVersion", "Assembly Version",
+                "BuildDate"}) {
+            types[anchors.add(name, true)] = METADATA;
+        }
+        // Lines of interest hold a keyword, are 7 to 255 chars long and have no CR, NEL or
+        // Unicode line or paragraph separator, which String.matches(".*(...).*") would not
+        // have let "." cross
+        for (String keyword : keywords.getKeywords()) {
+            types[anchors.add(keyword, keywords.isIgnoreCase())] = INTERESTING_STRINGS;
+        }
+        ANCHORS = anchors.build();
+        ANCHOR_TYPES = Arrays.copyOf(types, ANCHORS.size());
+    }
+
+    // Registry key states: after "HKEY_X\" (a value char must follow), inside a value,
+    // after the backslash that ends a value
+    private static final int IDLE = 0;
+    private static final int KEY_SEPARATOR = 1;
+    private static final int VALUE = 2;
+    private static final int SEPARATOR = 3;
+
+    private final Matcher[] matchers = new Matcher[TYPES.length];
+    private final List<Set<String>> found = new ArrayList<>(TYPES.length);
+    // Only follows registry keys, to redo them for a chunk that starts inside one
+    private final boolean registryOnly;
+    private char[] lineBuffer;
+
+    // Per line: types whose literals were seen, and where "HKEY_" starts
+    private int typesSeen;
+    private int[] registryStarts = new int[8];
+    private int registryCount;
+
+    private int registryState = IDLE;
+    private final StringBuilder registryKey = new StringBuilder();
+
+    public ArtifactMatcher() {
+        this(false);
+    }
+
+    private ArtifactMatcher(boolean registryOnly) {
+        this.registryOnly = registryOnly;
+        for (int type = 0; type < TYPES.length; type++) {
+            found.add(new LinkedHashSet<>());
+            if (PATTERNS[type] != null && !registryOnly) {
+                matchers[type] = PATTERNS[type].matcher("");
+            }
+        }
+    }
+
+    public static Map<String, Set<String>> match(String content) {
+        try {
+            return match(new StringReader(content));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Artifacts by type, in the usual type order, leaving out types with none.
+     */
+    public static Map<String, Set<String>> match(Reader content) throws IOException {
+        ArtifactMatcher matcher = new ArtifactMatcher();
+        char[] chunk = new char[8192];
+        char[] line = new char[256];
+        int length = 0;
+        int read;
+        while ((read = content.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char ch = chunk[i];
+                if (ch == '\n') {
+                    matcher.line(line, length);
+                    length = 0;
+                    continue;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = ch;
+            }
+        }
+        matcher.line(line, length);
+        return matcher.finish();
+    }
+
+    /**
+     * Matches strings [from, to) of the table's whole-file text as if they started the text.
+     * Chunks matched this way are put back together in order with {@link #append}.
+     */
+    public static ArtifactMatcher matchChunk(StringTable strings, int from, int to) {
+        ArtifactMatcher matcher = new ArtifactMatcher();
+        matcher.lines(strings, from, to);
+        return matcher;
+    }
+
+    /**
+     * Adds the matches of the chunk that follows the text matched so far. A registry key
+     * still open here runs on into the chunk, so the chunk's keys are found again from it.
+     * Sets keep the order in which matches first occur, as a single pass would.
+     */
+    public void append(ArtifactMatcher chunk, StringTable strings, int from, int to) {
+        if (registryState != IDLE) {
+            ArtifactMatcher keys = new ArtifactMatcher(true);
+            keys.registryState = registryState;
+            keys.registryKey.append(registryKey);
+            keys.lines(strings, from, to);
+            chunk.found.set(REGISTRY_KEYS, keys.found.get(REGISTRY_KEYS));
+            chunk.registryState = keys.registryState;
+            chunk.registryKey.setLength(0);
+            chunk.registryKey.append(keys.registryKey);
+        }
+        for (int type = 0; type < TYPES.length; type++) {
+            found.get(type).addAll(chunk.found.get(type));
+        }
+        registryState = chunk.registryState;
+        registryKey.setLength(0);
+        registryKey.append(chunk.registryKey);
+    }
+
+    private void lines(StringTable strings, int from, int to) {
+        if (lineBuffer == null) {
+            lineBuffer = new char[256];
+        }
+        for (int i = from; i < to; i++) {
+            if (strings.getEncoding(i) == StringTable.ASCII) {
+                continue;
+            }
+            if (strings.getLength(i) > lineBuffer.length) {
+                lineBuffer = new char[Math.max(strings.getLength(i), lineBuffer.length * 2)];
+            }
+            line(lineBuffer, strings.copyChars(i, lineBuffer));
+        }
+    }
+
+    /**
+     * Matches the next line of the text.
+     */
+    public void line(char[] chars, int length) {
+        typesSeen = 0;
+        registryCount = 0;
+        ANCHORS.scan(chars, 0, length, this);
+
+        followRegistryKeys(chars, length);
+        if (registryOnly) {
+            return;
+        }
+
+        String text = null;
+        for (int type = 0; type < TYPES.length; type++) {
+            if ((typesSeen & 1 << type) == 0 || matchers[type] == null) {
+                continue;
+            }
+            if (text == null) {
+                text = new String(chars, 0, length);
+            }
+            Matcher matcher = matchers[type].reset(text);
+            while (matcher.find()) {
+                String match = matcher.group();
+                if (type == URLS && match.contains("example.com")
+                        || type == EMAIL_ADDRESSES && match.endsWith("@example.com")) {
+                    continue;
+                }
+                found.get(type).add(type == DOMAINS ? match.toLowerCase() : match);
+            }
+        }
+
+        if ((typesSeen & 1 << INTERESTING_STRINGS) != 0 && length > 6 && length < 256
+                && !containsLineTerminator(chars, length)) {
+            found.get(INTERESTING_STRINGS).add(text == null ? new String(chars, 0, length) : text);
+        }
+    }
+
+    @Override
+    public void hit(int keyword, int start, int end) {
+        int type = ANCHOR_TYPES[keyword];
+        typesSeen |= 1 << type;
+        if (type == REGISTRY_KEYS) {
+            if (registryCount == registryStarts.length) {
+                registryStarts = Arrays.copyOf(registryStarts, registryCount * 2);
+            }
+            registryStarts[registryCount++] = start;
+        }
+    }
+
+    public Map<String, Set<String>> finish() {
+        // A key left open at the end of the text ends there
+        if (registryState == VALUE || registryState == SEPARATOR) {
+            found.get(REGISTRY_KEYS).add(registryKey.toString());
+        }
+        registryState = IDLE;
+
+        Map<String, Set<String>> artifacts = new LinkedHashMap<>();
+        for (int type = 0; type < TYPES.length; type++) {
+            if (!found.get(type).isEmpty()) {
+                artifacts.put(TYPES[type], found.get(type));
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * HKEY_[A-Z_]+\[^\]+(\[^\]+)*, case-insensitive. The value runs take line breaks too,
+     * so a key can go on for many lines and ends at a double or trailing backslash.
+     */
+    private void followRegistryKeys(char[] chars, int length) {
+        int position = 0;
+        if (registryState != IDLE) {
+            // The line break before this line belongs to the open key
+            registryChar('\n');
+            position = followRegistryKey(chars, 0, length);
+        }
+        for (int i = 0; i < registryCount; i++) {
+            int start = registryStarts[i];
+            if (start < position) {
+                continue;
+            }
+            int end = start + REGISTRY_PREFIX.length();
+            while (end < length && isKeyChar(chars[end])) {
+                end++;
+            }
+            if (end == start + REGISTRY_PREFIX.length() || end == length || chars[end] != '\\') {
+                continue;
+            }
+            registryKey.setLength(0);
+            registryKey.append(chars, start, end + 1 - start);
+            registryState = KEY_SEPARATOR;
+            position = followRegistryKey(chars, end + 1, length);
+        }
+    }
+
+    /**
+     * Feeds chars to the open key; returns where it ended, or the line length if it is still open.
+     */
+    private int followRegistryKey(char[] chars, int from, int length) {
+        for (int i = from; i < length; i++) {
+            if (!registryChar(chars[i])) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns false if the open key ended before this char.
+     */
+    private boolean registryChar(char ch) {
+        switch (registryState) {
+            case KEY_SEPARATOR:
+                if (ch == '\\') {
+                    registryState = IDLE;
+                    return false;
+                }
+                registryKey.append(ch);
+                registryState = VALUE;
+                return true;
+            case VALUE:
+                if (ch == '\\') {
+                    registryState = SEPARATOR;
+                } else {
+                    registryKey.append(ch);
+                }
+                return true;
+            case SEPARATOR:
+                if (ch == '\\') {
+                    found.get(REGISTRY_KEYS).add(registryKey.toString());
+                    registryState = IDLE;
+                    return false;
+                }
+                registryKey.append('\\').append(ch);
+                registryState = VALUE;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isKeyChar(char ch) {
+        return ch >= 'A' && ch <= 'Z' || ch >= 'a' && ch <= 'z' || ch == '_';
+    }
+
+    private static boolean containsLineTerminator(char[] chars, int length) {
+        for (int i = 0; i < length; i++) {
+            char ch = chars[i];
+            if (ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
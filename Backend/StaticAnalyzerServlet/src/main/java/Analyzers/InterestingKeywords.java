@@ -0,0 +1,212 @@
+package Analyzers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Words that make a string interesting, in categories, compiled once into a keyword
+ * automaton. The built-in words are the ones interesting strings have always been picked
+ * by. A file named by -Dkeywords.file adds to them, one category per line:
+ *
+ *   # comment
+ *   network: http, ftp, www
+ *   crypto: CryptEncrypt, BCrypt
+ *
+ * Words match exactly unless -Dkeywords.ignoreCase=true, then ASCII case is ignored.
+ * At most -Dkeywords.maxHits (default 10000) hits are reported per sample.
+ */
+public final class InterestingKeywords {
+
+    private static final int MAX_HITS = Integer.getInteger("keywords.maxHits", 10000);
+
+    private static volatile InterestingKeywords instance;
+
+    private final boolean ignoreCase;
+    private final List<String> keywords = new ArrayList<>();
+    private final List<String> categories = new ArrayList<>();
+    private final KeywordAutomaton automaton;
+
+    private InterestingKeywords(Map<String, Set<String>> byCategory, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+        for (Map.Entry<String, Set<String>> category : byCategory.entrySet()) {
+            for (String keyword : category.getValue()) {
+                builder.add(keyword, ignoreCase);
+                keywords.add(keyword);
+                categories.add(category.getKey());
+            }
+        }
+        this.automaton = builder.build();
+    }
+
+    /**
+     * The configured keywords, loaded on first use; the webapp loads them at startup.
+     */
+    public static InterestingKeywords get() {
+        InterestingKeywords keywords = instance;
+        if (keywords == null) {
+            synchronized (InterestingKeywords.class) {
+                keywords = instance;
+                if (keywords == null) {
+                    keywords = load();
+                    instance = keywords;
+                }
+            }
+        }
+        return keywords;
+    }
+
+    private static InterestingKeywords load() {
+        Map<String, Set<String>> byCategory = new LinkedHashMap<>();
+        add(byCategory, "network", "http", "ftp", "www");
+        add(byCategory, "credentials", "passw", "key", "secret", "token", "api");
+        add(byCategory, "accounts", "admin", "root", "user", "login");
+        add(byCategory, "temporary", "temp", "tmp", "cache", "log");
+        add(byCategory, "execution", "cmd", "exec", "run", "shell");
+
+        String file = System.getProperty("keywords.file");
+        if (file != null) {
+            try {
+                int lineNumber = 0;
+                for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    int colon = line.indexOf(':');
+                    if (colon <= 0) {
+                        System.err.println("Skipping keyword line " + lineNumber + " of " + file
+                                + ", expected \"category: keyword, ...\"");
+                        continue;
+                    }
+                    String category = line.substring(0, colon).trim();
+                    for (String keyword : line.substring(colon + 1).split(",")) {
+                        keyword = keyword.trim();
+                        if (keyword.isEmpty()) {
+                            continue;
+                        }
+                        if (!isLatin1(keyword)) {
+                            System.err.println("Skipping keyword \"" + keyword + "\" of " + file
+                                    + ", strings hold Latin-1 chars only");
+                            continue;
+                        }
+                        add(byCategory, category, keyword);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read keyword file " + file + ": " + e.getMessage());
+            }
+        }
+        return new InterestingKeywords(byCategory, Boolean.getBoolean("keywords.ignoreCase"));
+    }
+
+    private static void add(Map<String, Set<String>> byCategory, String category, String... keywords) {
+        Set<String> words = byCategory.computeIfAbsent(category, name -> new LinkedHashSet<>());
+        Collections.addAll(words, keywords);
+    }
+
+    private static boolean isLatin1(String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (keyword.charAt(i) > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return keywords.size();
+    }
+
+    public List<String> getKeywords() {
+        return Collections.unmodifiableList(keywords);
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Everything that decides the matches, e.g. "network:http,ftp;...;ignoreCase=false;maxHits=10000".
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < keywords.size(); i++) {
+            boolean newCategory = i == 0 || !categories.get(i).equals(categories.get(i - 1));
+            description.append(newCategory ? (i == 0 ? "" : ";") + categories.get(i) + ":" : ",")
+                    .append(keywords.get(i));
+        }
+        return description.append(";ignoreCase=").append(ignoreCase).append(";maxHits=").append(MAX_HITS)
+                .toString();
+    }
+
+    /**
+     * Every keyword occurrence in the whole-file strings of a table, string by string.
+     */
+    public List<Match> find(StringTable strings) {
+        List<Match> matches = new ArrayList<>();
+        char[] text = new char[256];
+        for (int i = 0; i < strings.size() && matches.size() < MAX_HITS; i++) {
+            byte encoding = strings.getEncoding(i);
+            if (encoding == StringTable.ASCII) {
+                continue;
+            }
+            if (strings.getLength(i) > text.length) {
+                text = new char[Math.max(strings.getLength(i), text.length * 2)];
+            }
+            int length = strings.copyChars(i, text);
+            int offset = strings.getOffset(i);
+            int unit = encoding == StringTable.UTF16LE ? 2 : 1;
+            automaton.scan(text, 0, length, (keyword, start, end) -> {
+                if (matches.size() < MAX_HITS) {
+                    matches.add(new Match(offset + start * unit, encoding, keywords.get(keyword),
+                            categories.get(keyword)));
+                }
+            });
+        }
+        return matches;
+    }
+
+    public static final class Match {
+        private final int offset;
+        private final byte encoding;
+        private final String keyword;
+        private final String category;
+
+        private Match(int offset, byte encoding, String keyword, String category) {
+            this.offset = offset;
+            this.encoding = encoding;
+            this.keyword = keyword;
+            this.category = category;
+        }
+
+        /**
+         * File offset of the first byte of the keyword.
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        public String getEncoding() {
+            return encoding == StringTable.UTF16LE ? "utf-16le" : "latin-1";
+        }
+
+        public String getKeyword() {
+            return keyword;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+    }
+}
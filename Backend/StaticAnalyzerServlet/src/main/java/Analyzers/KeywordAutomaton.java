@@ -0,0 +1,206 @@
+package Analyzers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a fixed set of keywords: one pass over a text reports every
+ * occurrence of every keyword, with one table lookup per char however many keywords there
+ * are. Transitions are precomputed for all states (no failure links are followed while
+ * scanning) over the chars the keywords use; any other char leads back to the root.
+ *
+ * Keywords are matched ignoring ASCII case or exactly, per keyword. The automaton always
+ * folds case and checks the exact keywords against the text when they are found.
+ */
+public final class KeywordAutomaton {
+
+    public interface Hits {
+        /**
+         * One occurrence of a keyword at text[start, end).
+         */
+        void hit(int keyword, int start, int end);
+    }
+
+    private final String[] keywords;
+    private final boolean[] exact;
+    // Folded char -> column, 0 for chars no keyword uses
+    private final int[] columns;
+    private final int width;
+    private final int[] transitions;
+    // Keywords ending in each state, null for none
+    private final int[][] outputs;
+
+    private KeywordAutomaton(String[] keywords, boolean[] exact, int[] columns, int width,
+                             int[] transitions, int[][] outputs) {
+        this.keywords = keywords;
+        this.exact = exact;
+        this.columns = columns;
+        this.width = width;
+        this.transitions = transitions;
+        this.outputs = outputs;
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    public String getKeyword(int keyword) {
+        return keywords[keyword];
+    }
+
+    /**
+     * Reports the keywords found in text[from, to) in the order they end.
+     */
+    public void scan(char[] text, int from, int to, Hits hits) {
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            char ch = text[i];
+            state = transitions[state * width + (ch < 256 ? columns[ch] : 0)];
+            int[] found = outputs[state];
+            if (found == null) {
+                continue;
+            }
+            for (int keyword : found) {
+                int start = i + 1 - keywords[keyword].length();
+                if (!exact[keyword] || matchesExactly(text, start, keywords[keyword])) {
+                    hits.hit(keyword, start, i + 1);
+                }
+            }
+        }
+    }
+
+    private static boolean matchesExactly(char[] text, int start, String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (text[start + i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char fold(char ch) {
+        return ch >= 'A' && ch <= 'Z' ? (char) (ch + 32) : ch;
+    }
+
+    /**
+     * Keywords are numbered in the order they are added.
+     */
+    public static final class Builder {
+        private final List<String> keywords = new ArrayList<>();
+        private final List<Boolean> exact = new ArrayList<>();
+
+        public int add(String keyword, boolean ignoreCase) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("Empty keyword");
+            }
+            for (int i = 0; i < keyword.length(); i++) {
+                if (keyword.charAt(i) > 255) {
+                    throw new IllegalArgumentException("Keyword is not Latin-1: " + keyword);
+                }
+            }
+            keywords.add(keyword);
+            exact.add(!ignoreCase);
+            return keywords.size() - 1;
+        }
+
+        public KeywordAutomaton build() {
+            int[] columns = new int[256];
+            int width = 1;
+            for (String keyword : keywords) {
+                for (int i = 0; i < keyword.length(); i++) {
+                    char ch = fold(keyword.charAt(i));
+                    if (columns[ch] == 0) {
+                        columns[ch] = width++;
+                    }
+                }
+            }
+            for (char ch = 'A'; ch <= 'Z'; ch++) {
+                columns[ch] = columns[fold(ch)];
+            }
+
+            // Trie, with -1 for missing children
+            List<int[]> children = new ArrayList<>();
+            List<List<Integer>> ending = new ArrayList<>();
+            children.add(newRow(width));
+            ending.add(new ArrayList<>());
+            for (int k = 0; k < keywords.size(); k++) {
+                String keyword = keywords.get(k);
+                int state = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    int column = columns[fold(keyword.charAt(i))];
+                    if (children.get(state)[column] < 0) {
+                        children.get(state)[column] = children.size();
+                        children.add(newRow(width));
+                        ending.add(new ArrayList<>());
+                    }
+                    state = children.get(state)[column];
+                }
+                ending.get(state).add(k);
+            }
+
+            // Breadth first, so a state's failure state is complete before the state itself
+            int states = children.size();
+            int[] transitions = new int[states * width];
+            int[] failure = new int[states];
+            int[][] outputs = new int[states][];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int column = 0; column < width; column++) {
+                int child = children.get(0)[column];
+                transitions[column] = Math.max(child, 0);
+                if (child > 0) {
+                    queue.add(child);
+                }
+            }
+            outputs[0] = toArray(ending.get(0));
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                List<Integer> found = new ArrayList<>(ending.get(state));
+                int[] inherited = outputs[failure[state]];
+                if (inherited != null) {
+                    for (int keyword : inherited) {
+                        found.add(keyword);
+                    }
+                }
+                outputs[state] = toArray(found);
+                for (int column = 0; column < width; column++) {
+                    int child = children.get(state)[column];
+                    int fallback = transitions[failure[state] * width + column];
+                    if (child < 0) {
+                        transitions[state * width + column] = fallback;
+                    } else {
+                        transitions[state * width + column] = child;
+                        failure[child] = fallback;
+                        queue.add(child);
+                    }
+                }
+            }
+
+            boolean[] exactFlags = new boolean[exact.size()];
+            for (int k = 0; k < exactFlags.length; k++) {
+                exactFlags[k] = exact.get(k);
+            }
+            return new KeywordAutomaton(keywords.toArray(new String[0]), exactFlags, columns, width,
+                    transitions, outputs);
+        }
+
+        private static int[] newRow(int width) {
+            int[] row = new int[width];
+            Arrays.fill(row, -1);
+            return row;
+        }
+
+        private static int[] toArray(List<Integer> keywords) {
+            if (keywords.isEmpty()) {
+                return null;
+            }
+            int[] array = new int[keywords.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = keywords.get(i);
+            }
+            return array;
+        }
+    }
+}
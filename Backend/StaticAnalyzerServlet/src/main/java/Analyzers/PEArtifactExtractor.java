@@ -1,40 +1,27 @@
 package Analyzers;
 
 import Bean.PEArtifacts;
+import Utilities.AnalysisExecutor;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class PEArtifactExtractor implements Serializable {
-    private final byte[] fileBytes;
+    public static final int STAGE_VERSION = 2;
+    private final transient PEImage image;
     private final Map<String, String> sectionStrings;
     private final Map<String, Map<String, Set<String>>> sectionArtifacts;
 
-    // Regex patterns for artifact detection
-    private static final Pattern URL_PATTERN = Pattern.compile(
-            "(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]");
-    private static final Pattern FILE_PATTERN = Pattern.compile(
-            "(?i)\\b[a-z]:\\\\(?:[^\\\\/:*?\"<>|\\r\\n]+\\\\)*[^\\\\/:*?\"<>|\\r\\n]*");
-    private static final Pattern IP_PATTERN = Pattern.compile(
-            "\\b(?:\\d{1,3}\\.){3}\\d{1,3}\\b");
-    private static final Pattern EMAIL_PATTERN = Pattern.compile(
-            "[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,6}");
-    private static final Pattern REGISTRY_PATTERN = Pattern.compile(
-            "HKEY_[A-Z_]+\\\\[^\\\\]+(\\\\[^\\\\]+)*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern DOMAIN_PATTERN = Pattern.compile(
-            "(?:[a-z0-9](?:[a-z0-9-]{0,61}[a-z0-9])?\\.)+[a-z0-9][a-z0-9-]{0,61}[a-z0-9]",
-            Pattern.CASE_INSENSITIVE);
-    private static final Pattern API_PATTERN = Pattern.compile(
-            "\\b(?:Create|Open|Read|Write|Close|Delete|Find|Get|Set|Send|Receive|Put)[A-Z][a-zA-Z]+\\b",
-            Pattern.CASE_INSENSITIVE);
-    private static final Pattern METADATA_PATTERN = Pattern.compile(
-            "\\b(?:CompanyName|FileDescription|FileVersion|InternalName|LegalCopyright|" +
-                    "OriginalFilename|ProductName|ProductVersion|Assembly Version|BuildDate)\\b",
-            Pattern.CASE_INSENSITIVE);
+    private static final long MEMORY_BUDGET = Long.getLong("artifacts.memoryMB", 256) * 1024 * 1024;
+    // Rough heap use per char of text being matched: the line's String and the matches cut from it
+    private static final int BYTES_PER_CHAR = 8;
+    private static final int MIN_CHUNK_CHARS = 64 * 1024;
+    // Checks every extraction against the regex scans the matcher replaced
+    private static final boolean VERIFY_MATCHER = Boolean.getBoolean("artifacts.verifyMatcher");
 
     public Map<String, Object> getFilteredArtifacts(PEArtifacts filter) {
         Map<String, Object> response = new LinkedHashMap<>();
@@ -129,106 +116,96 @@ public class PEArtifactExtractor implements Serializable {
 
         return filtered;
     }
+    /**
+     * Settings other than the sample itself that change what is extracted.
+     */
+    public static String configuration() {
+        return "utf16=" + StringTable.isScanningUtf16() + ";" + InterestingKeywords.get().describe();
+    }
+
     public PEArtifactExtractor(byte[] fileBytes) throws IOException {
-        this.fileBytes = fileBytes;
-        ExtractStrings extract = new ExtractStrings(fileBytes);
+        this(PEImage.parse(fileBytes));
+    }
+
+    public PEArtifactExtractor(PEImage image) {
+        this(image, new ExtractStrings(image));
+    }
+
+    /**
+     * Reuses strings already extracted from the image.
+     */
+    public PEArtifactExtractor(PEImage image, ExtractStrings extract) {
+        this.image = image;
         this.sectionStrings = extract.getSectionStrings();
         this.sectionArtifacts = new LinkedHashMap<>();
-        analyzeAllSections();
-        analyzeWholeFile(extract);
+        // Sections are matched on the extraction pool while the whole file is split over it too
+        Map<String, ForkJoinTask<Map<String, Set<String>>>> sections = analyzeAllSections();
+        Map<String, Set<String>> all = analyzeWholeFile(extract);
+        for (Map.Entry<String, ForkJoinTask<Map<String, Set<String>>>> section : sections.entrySet()) {
+            sectionArtifacts.put(section.getKey(), section.getValue().join());
+        }
+        sectionArtifacts.put("all", all);
+        if (VERIFY_MATCHER) {
+            verifyMatcher(extract);
+        }
     }
 
-    private void analyzeAllSections() {
-        for (Map.Entry<String, String> entry : sectionStrings.entrySet()) {
-            String sectionName = entry.getKey();
-            String content = entry.getValue();
-
-            Map<String, Set<String>> artifacts = new LinkedHashMap<>();
-            Set<String > temp = new LinkedHashSet<>();
-            temp = extractUrls(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("urls", temp);
-            }
-            temp = extractFilePaths(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("filePaths", temp);
-            }
-            temp =extractIpAddresses(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("ipAddresses", temp);
-            }
-            temp=extractEmailAddresses(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("emailAddresses", temp);
-            }
-            temp = extractRegistryKeys(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("registryKeys", temp);
-            }
-            temp = extractDomains(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("domains", temp);
+    /**
+     * Runs the regex scans ArtifactMatcher replaced over the same text and reports every
+     * section whose artifacts differ. Only for checking the matcher; it costs the full scans.
+     */
+    private void verifyMatcher(ExtractStrings extract) {
+        Map<String, String> texts = new LinkedHashMap<>(sectionStrings);
+        texts.put("all", extract.extractAllStrings());
+        for (Map.Entry<String, String> text : texts.entrySet()) {
+            List<String> differences = RegexArtifactScan.differences(
+                    RegexArtifactScan.match(text.getValue()), sectionArtifacts.get(text.getKey()));
+            for (String difference : differences) {
+                System.err.println("Artifact matcher differs from the regex scan in " + text.getKey()
+                        + ", " + difference);
             }
-            temp = extractApiCalls(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("apiCalls", temp);
-            }
-            temp = extractMetadata(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("metadata", temp);
-            }
-            temp =findInterestingStrings(content);
-            if (!temp.isEmpty()) {
-                artifacts.put("interestingStrings", temp);
-            }
-            sectionArtifacts.put(sectionName, artifacts);
         }
     }
 
-    private void analyzeWholeFile(ExtractStrings extract){
-        String content = extract.extractAllStrings();
-
-        Map<String, Set<String>> artifacts = new LinkedHashMap<>();
-        Set<String > temp = new LinkedHashSet<>();
-        temp = extractUrls(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("urls", temp);
-        }
-        temp = extractFilePaths(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("filePaths", temp);
-        }
-        temp =extractIpAddresses(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("ipAddresses", temp);
-        }
-        temp=extractEmailAddresses(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("emailAddresses", temp);
-        }
-        temp = extractRegistryKeys(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("registryKeys", temp);
-        }
-        temp = extractDomains(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("domains", temp);
-        }
-        temp = extractApiCalls(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("apiCalls", temp);
-        }
-        temp = extractMetadata(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("metadata", temp);
-        }
-        temp =findInterestingStrings(content);
-        if (!temp.isEmpty()) {
-            artifacts.put("interestingStrings", temp);
+    private Map<String, ForkJoinTask<Map<String, Set<String>>>> analyzeAllSections() {
+        ForkJoinPool pool = AnalysisExecutor.getExtractionPool();
+        Map<String, ForkJoinTask<Map<String, Set<String>>>> tasks = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : sectionStrings.entrySet()) {
+            String content = entry.getValue();
+            tasks.put(entry.getKey(), pool.submit(() -> ArtifactMatcher.match(content)));
         }
+        return tasks;
+    }
 
-        sectionArtifacts.put("all", artifacts);
+    /**
+     * Matches the whole-file strings in chunks that end between strings, a window of chunks
+     * at a time, and merges them in order. Chunks and windows are sized so the text being
+     * matched at once stays within -Dartifacts.memoryMB.
+     */
+    private Map<String, Set<String>> analyzeWholeFile(ExtractStrings extract){
+        StringTable strings = extract.getStringTable();
+        ForkJoinPool pool = AnalysisExecutor.getExtractionPool();
+        int parallelism = pool.getParallelism();
+        long inFlightChars = Math.max(MIN_CHUNK_CHARS, MEMORY_BUDGET / BYTES_PER_CHAR);
+        long chunkChars = Math.max(MIN_CHUNK_CHARS,
+                Math.min(strings.fileTextChars() / (parallelism * 4L), inFlightChars / parallelism));
+        int[] bounds = strings.fileTextChunks(chunkChars);
+        int window = (int) Math.max(1, inFlightChars / chunkChars);
 
+        ArtifactMatcher merged = new ArtifactMatcher();
+        for (int first = 0; first < bounds.length - 1; first += window) {
+            int last = Math.min(first + window, bounds.length - 1);
+            List<ForkJoinTask<ArtifactMatcher>> chunks = new ArrayList<>(last - first);
+            for (int c = first; c < last; c++) {
+                int from = bounds[c];
+                int to = bounds[c + 1];
+                chunks.add(pool.submit(() -> ArtifactMatcher.matchChunk(strings, from, to)));
+            }
+            for (int c = first; c < last; c++) {
+                merged.append(chunks.get(c - first).join(), strings, bounds[c], bounds[c + 1]);
+            }
+        }
+        return merged.finish();
     }
 
     public Map<String, List<Map<String, List<String>>>> getStructuredArtifacts() {
@@ -251,102 +228,6 @@ public class PEArtifactExtractor implements Serializable {
         return result;
     }
 
-    // Individual artifact extraction methods
-    private Set<String> extractUrls(String content) {
-        Set<String> urls = new LinkedHashSet<>();
-        Matcher matcher = URL_PATTERN.matcher(content);
-        while (matcher.find()) {
-            String url = matcher.group();
-            if (!url.contains("example.com")) {
-                urls.add(url);
-            }
-        }
-        return urls;
-    }
-
-    private Set<String> extractFilePaths(String content) {
-        Set<String> paths = new LinkedHashSet<>();
-        Matcher matcher = FILE_PATTERN.matcher(content);
-        while (matcher.find()) {
-            paths.add(matcher.group());
-        }
-        return paths;
-    }
-
-    private Set<String> extractIpAddresses(String content) {
-        Set<String> ips = new LinkedHashSet<>();
-        Matcher matcher = IP_PATTERN.matcher(content);
-        while (matcher.find()) {
-            ips.add(matcher.group());
-        }
-        return ips;
-    }
-
-    private Set<String> extractEmailAddresses(String content) {
-        Set<String> emails = new LinkedHashSet<>();
-        Matcher matcher = EMAIL_PATTERN.matcher(content);
-        while (matcher.find()) {
-            String email = matcher.group();
-            if (!email.endsWith("@example.com")) {
-                emails.add(email);
-            }
-        }
-        return emails;
-    }
-
-    private Set<String> extractRegistryKeys(String content) {
-        Set<String> keys = new LinkedHashSet<>();
-        Matcher matcher = REGISTRY_PATTERN.matcher(content);
-        while (matcher.find()) {
-            keys.add(matcher.group());
-        }
-        return keys;
-    }
-
-    private Set<String> extractDomains(String content) {
-        Set<String> domains = new LinkedHashSet<>();
-        Matcher matcher = DOMAIN_PATTERN.matcher(content);
-        while (matcher.find()) {
-            domains.add(matcher.group().toLowerCase());
-        }
-        return domains;
-    }
-
-    private Set<String> extractApiCalls(String content) {
-        Set<String> apis = new LinkedHashSet<>();
-        Matcher matcher = API_PATTERN.matcher(content);
-        while (matcher.find()) {
-            apis.add(matcher.group());
-        }
-        return apis;
-    }
-
-    private Set<String> extractMetadata(String content) {
-        Set<String> metadata = new LinkedHashSet<>();
-        Matcher matcher = METADATA_PATTERN.matcher(content);
-        while (matcher.find()) {
-            metadata.add(matcher.group());
-        }
-        return metadata;
-    }
-
-    private Set<String> findInterestingStrings(String content) {
-        Set<String> interesting = new LinkedHashSet<>();
-        String[] lines = content.split("\n");
-        for (String line : lines) {
-            if (line.length() > 6 && line.length() < 256) {
-                if (line.matches(".*(http|ftp|www).*") ||
-                        line.matches(".*(passw|key|secret|token|api).*") ||
-                        line.matches(".*(admin|root|user|login).*") ||
-                        line.matches(".*(temp|tmp|cache|log).*") ||
-                        line.matches(".*(cmd|exec|run|shell).*")) {
-                    interesting.add(line);
-                }
-            }
-        }
-        return interesting;
-    }
-
     public void printArtifacts() {
         Map<String, List<Map<String, List<String>>>> artifacts = getStructuredArtifacts();
 
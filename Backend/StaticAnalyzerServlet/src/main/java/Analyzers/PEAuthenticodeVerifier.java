@@ -1,6 +1,7 @@
 package Analyzers;
 
 import Bean.PEAuthenticodeInfo;
+import Utilities.Utils;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cms.CMSSignedData;
@@ -10,7 +11,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.Security;
 import java.security.cert.*;
@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.List;
 
 public class PEAuthenticodeVerifier{
+    public static final int STAGE_VERSION = 1;
 
     static {
         Security.addProvider(new BouncyCastleProvider());
@@ -38,13 +39,28 @@ public class PEAuthenticodeVerifier{
     public void analyze(byte[] fileBytes) {
         resetState();
 
+        if (fileBytes == null || fileBytes.length < 64) {
+            this.validationError = "File is too small or null";
+            return;
+        }
+
+        try {
+            analyze(PEImage.parse(fileBytes));
+        } catch (IllegalArgumentException e) {
+            this.validationError = "No Authenticode signature found";
+        }
+    }
+
+    public void analyze(PEImage image) {
+        resetState();
+
         try {
-            if (fileBytes == null || fileBytes.length < 64) {
+            if (image.length() < 64) {
                 this.validationError = "File is too small or null";
                 return;
             }
 
-            byte[] signatureData = extractSignatureData(fileBytes);
+            byte[] signatureData = extractSignatureData(image);
             if (signatureData == null || signatureData.length == 0) {
                 this.hasSignature = false;
                 this.validationError = "No Authenticode signature found";
@@ -67,60 +83,36 @@ public class PEAuthenticodeVerifier{
         this.validationError = "No signature found";
     }
 
-    private byte[] extractSignatureData(byte[] fileBytes) throws IOException {
-        if (fileBytes[0] != 'M' || fileBytes[1] != 'Z') {
-            return null;
-        }
-
-        int peOffset = ByteBuffer.wrap(fileBytes, 0x3C, 4)
-                .order(ByteOrder.LITTLE_ENDIAN).getInt();
-
-        if (peOffset <= 0 || peOffset >= fileBytes.length) {
-            return null;
-        }
-
-        if (fileBytes[peOffset] != 'P' || fileBytes[peOffset + 1] != 'E') {
-            return null;
-        }
-
-        int optionalHeaderOffset = peOffset + 24;
-        int magic = ByteBuffer.wrap(fileBytes, optionalHeaderOffset, 2)
-                .order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
-
-        boolean is64bit = (magic == 0x20b);
+    private byte[] extractSignatureData(PEImage image) throws IOException {
+        ByteBuffer buffer = image.getBuffer();
 
-        int dataDirOffset = optionalHeaderOffset + (is64bit ? 112 : 96);
-        int certTableRva = ByteBuffer.wrap(fileBytes, dataDirOffset + 8 * 4, 4)
-                .order(ByteOrder.LITTLE_ENDIAN).getInt();
-        int certTableSize = ByteBuffer.wrap(fileBytes, dataDirOffset + 8 * 4 + 4, 4)
-                .order(ByteOrder.LITTLE_ENDIAN).getInt();
+        // The security directory holds a file offset, not an RVA
+        int certTableRva = image.getDirectoryRva(PEImage.DIRECTORY_SECURITY);
+        int certTableSize = image.getDirectorySize(PEImage.DIRECTORY_SECURITY);
 
         if (certTableSize == 0 || certTableRva == 0) {
             return null;
         }
 
         int certTableOffset = certTableRva;
-        if (certTableOffset <= 0 || certTableOffset + certTableSize > fileBytes.length) {
+        if (certTableOffset <= 0 || certTableOffset + certTableSize > buffer.limit()) {
             return null;
         }
 
-        int certLength = ByteBuffer.wrap(fileBytes, certTableOffset, 4)
-                .order(ByteOrder.LITTLE_ENDIAN).getInt();
-        int revision = ByteBuffer.wrap(fileBytes, certTableOffset + 4, 2)
-                .order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
-        int certType = ByteBuffer.wrap(fileBytes, certTableOffset + 6, 2)
-                .order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
+        int certLength = Utils.readDWord(buffer, certTableOffset);
+        int revision = Utils.readWord(buffer, certTableOffset + 4);
+        int certType = Utils.readWord(buffer, certTableOffset + 6);
 
         if (certType != 2) { // WIN_CERT_TYPE_PKCS_SIGNED_DATA
             return null;
         }
 
-        if (certLength <= 8 || certTableOffset + certLength > fileBytes.length) {
+        if (certLength <= 8 || certTableOffset + certLength > buffer.limit()) {
             return null;
         }
 
         byte[] signatureData = new byte[certLength - 8];
-        System.arraycopy(fileBytes, certTableOffset + 8, signatureData, 0, signatureData.length);
+        image.slice(certTableOffset + 8, signatureData.length).get(signatureData);
         return signatureData;
     }
 
@@ -1,12 +1,15 @@
 package Analyzers;
 
 import Utilities.Utils;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 public class PEExportsParser {
+    public static final int STAGE_VERSION = 1;
 
 
     public static class PEExportsInfo {
@@ -66,63 +69,48 @@ public class PEExportsParser {
     }
 
     public PEExportsInfo parse(byte[] fileBytes) throws Exception {
-        return analyzeExports(fileBytes);
+        return parse(PEImage.parse(fileBytes));
     }
 
-    private PEExportsInfo analyzeExports(byte[] fileBytes) {
-        PEExportsInfo exportsInfo = new PEExportsInfo();
-
-        // Check MZ header
-        if (fileBytes.length < 2 || fileBytes[0] != 'M' || fileBytes[1] != 'Z') {
-            throw new IllegalArgumentException("Not a valid PE file");
-        }
-
-        int peHeaderOffset = Utils.readDWord(fileBytes, 0x3C);
-        if (peHeaderOffset <= 0 || peHeaderOffset + 248 >= fileBytes.length) {
-            throw new IllegalArgumentException("Invalid PE header offset");
-        }
-
-        // Check PE signature
-        if (Utils.readDWord(fileBytes, peHeaderOffset) != 0x00004550) {
-            throw new IllegalArgumentException("Invalid PE signature");
-        }
+    public PEExportsInfo parse(PEImage image) {
+        return analyzeExports(image);
+    }
 
-        // Optional Header
-        int optionalHeaderOffset = peHeaderOffset + 24;
-        int magic = Utils.readWord(fileBytes, optionalHeaderOffset);
-        boolean is64bit = (magic == 0x20B);
+    private PEExportsInfo analyzeExports(PEImage image) {
+        PEExportsInfo exportsInfo = new PEExportsInfo();
+        ByteBuffer buffer = image.getBuffer();
 
         // Get Export Table RVA and Size
-        int exportTableRva = Utils.readDWord(fileBytes, optionalHeaderOffset + (is64bit ? 112 : 96));
-        int exportTableSize = Utils.readDWord(fileBytes, optionalHeaderOffset + (is64bit ? 116 : 100));
+        int exportTableRva = image.getDirectoryRva(PEImage.DIRECTORY_EXPORT);
+        int exportTableSize = image.getDirectorySize(PEImage.DIRECTORY_EXPORT);
 
         if (exportTableRva == 0 || exportTableSize == 0) {
             return exportsInfo; // No exports
         }
 
         // Convert RVA to file offset
-        int exportTableOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, exportTableRva);
+        int exportTableOffset = image.rvaToOffset(exportTableRva);
         if (exportTableOffset == -1) {
             return exportsInfo;
         }
 
         // Parse Export Directory
-        int characteristics = Utils.readDWord(fileBytes, exportTableOffset);
-        int timeDateStamp = Utils.readDWord(fileBytes, exportTableOffset + 4);
-        int majorVersion = Utils.readWord(fileBytes, exportTableOffset + 8);
-        int minorVersion = Utils.readWord(fileBytes, exportTableOffset + 10);
-        int nameRva = Utils.readDWord(fileBytes, exportTableOffset + 12);
-        int ordinalBase = Utils.readDWord(fileBytes, exportTableOffset + 16);
-        int numberOfFunctions = Utils.readDWord(fileBytes, exportTableOffset + 20);
-        int numberOfNames = Utils.readDWord(fileBytes, exportTableOffset + 24);
-        int addressOfFunctionsRva = Utils.readDWord(fileBytes, exportTableOffset + 28);
-        int addressOfNamesRva = Utils.readDWord(fileBytes, exportTableOffset + 32);
-        int addressOfNameOrdinalsRva = Utils.readDWord(fileBytes, exportTableOffset + 36);
+        int characteristics = Utils.readDWord(buffer, exportTableOffset);
+        int timeDateStamp = Utils.readDWord(buffer, exportTableOffset + 4);
+        int majorVersion = Utils.readWord(buffer, exportTableOffset + 8);
+        int minorVersion = Utils.readWord(buffer, exportTableOffset + 10);
+        int nameRva = Utils.readDWord(buffer, exportTableOffset + 12);
+        int ordinalBase = Utils.readDWord(buffer, exportTableOffset + 16);
+        int numberOfFunctions = Utils.readDWord(buffer, exportTableOffset + 20);
+        int numberOfNames = Utils.readDWord(buffer, exportTableOffset + 24);
+        int addressOfFunctionsRva = Utils.readDWord(buffer, exportTableOffset + 28);
+        int addressOfNamesRva = Utils.readDWord(buffer, exportTableOffset + 32);
+        int addressOfNameOrdinalsRva = Utils.readDWord(buffer, exportTableOffset + 36);
 
         // Get function addresses
-        int functionsOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, addressOfFunctionsRva);
-        int namesOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, addressOfNamesRva);
-        int ordinalsOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, addressOfNameOrdinalsRva);
+        int functionsOffset = image.rvaToOffset(addressOfFunctionsRva);
+        int namesOffset = image.rvaToOffset(addressOfNamesRva);
+        int ordinalsOffset = image.rvaToOffset(addressOfNameOrdinalsRva);
 
         if (functionsOffset == -1 || namesOffset == -1 || ordinalsOffset == -1) {
             return exportsInfo;
@@ -131,7 +119,7 @@ public class PEExportsParser {
         // Create map of ordinal to address
         Map<Integer, Long> ordinalToAddress = new TreeMap<>();
         for (int i = 0; i < numberOfFunctions; i++) {
-            int functionRva = Utils.readDWord(fileBytes, functionsOffset + i * 4);
+            int functionRva = Utils.readDWord(buffer, functionsOffset + i * 4);
             if (functionRva != 0) { // Skip null entries
                 ordinalToAddress.put(i + ordinalBase, (long) functionRva);
             }
@@ -140,11 +128,11 @@ public class PEExportsParser {
         // Create map of name to ordinal
         Map<String, Integer> nameToOrdinal = new TreeMap<>();
         for (int i = 0; i < numberOfNames; i++) {
-            int namePtrRva = Utils.readDWord(fileBytes, namesOffset + i * 4);
-            int nameOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, namePtrRva);
+            int namePtrRva = Utils.readDWord(buffer, namesOffset + i * 4);
+            int nameOffset = image.rvaToOffset(namePtrRva);
             if (nameOffset != -1) {
-                String name = Utils.readNullTerminatedString(fileBytes, nameOffset);
-                int ordinal = Utils.readWord(fileBytes, ordinalsOffset + i * 2);
+                String name = Utils.readNullTerminatedString(buffer, nameOffset);
+                int ordinal = Utils.readWord(buffer, ordinalsOffset + i * 2);
                 nameToOrdinal.put(name, ordinal + ordinalBase);
             }
         }
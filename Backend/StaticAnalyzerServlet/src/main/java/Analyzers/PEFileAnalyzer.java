@@ -1,22 +1,35 @@
 package Analyzers;
 
 import Bean.PEFileInfo;
+import Utilities.MultiDigest;
 import Utilities.Utils;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
 
 
 public class PEFileAnalyzer implements Serializable {
+    public static final int STAGE_VERSION = 1;
     PEFileInfo peFileInfo = new PEFileInfo();
     private String fileName;
-    private byte[] fileBytes;
+    private transient ByteBuffer buffer;
+    private Map<String, String> hashes;
 
     public PEFileAnalyzer(byte[] fileBytes,String filename) throws IOException {
+        this(ByteBuffer.wrap(fileBytes), filename, null);
+    }
+
+    /**
+     * @param hashes digests already computed while the upload was copied, keyed by
+     *               algorithm name; missing ones are computed here in one pass
+     */
+    public PEFileAnalyzer(ByteBuffer buffer, String filename, Map<String, String> hashes) throws IOException {
         this.fileName = filename;
-        this.fileBytes = fileBytes;
+        this.buffer = buffer;
+        this.hashes = hashes;
         analyze();
     }
     public PEFileInfo getPEFileInfo() {
@@ -25,24 +38,27 @@ public class PEFileAnalyzer implements Serializable {
 
     private void analyze() {
         peFileInfo.setFileType(detectFileType());
-        peFileInfo.setFileSize(fileBytes.length);
+        peFileInfo.setFileSize(buffer.limit());
         peFileInfo.setEntropy(calculateEntropy());
-        peFileInfo.setMd5Hash(Utils.calculateHash(fileBytes,"MD5"));
-        peFileInfo.setSha1Hash(Utils.calculateHash(fileBytes,"SHA-1"));
-        peFileInfo.setSha256Hash(Utils.calculateHash(fileBytes,"SHA-256"));
-        peFileInfo.setSha512Hash(Utils.calculateHash(fileBytes,"SHA-512"));
+        if (hashes == null || !hashes.keySet().containsAll(Arrays.asList(MultiDigest.FILE_ALGORITHMS))) {
+            hashes = MultiDigest.compute(buffer, MultiDigest.FILE_ALGORITHMS);
+        }
+        peFileInfo.setMd5Hash(hashes.get(MultiDigest.MD5));
+        peFileInfo.setSha1Hash(hashes.get(MultiDigest.SHA1));
+        peFileInfo.setSha256Hash(hashes.get(MultiDigest.SHA256));
+        peFileInfo.setSha512Hash(hashes.get(MultiDigest.SHA512));
         peFileInfo.setContentPreview(generateContentPreview());
         peFileInfo.setFileName(fileName);
     }
 
     private String detectFileType() {
-        if (fileBytes.length > 0x40 &&
-                fileBytes[0] == 0x4D && fileBytes[1] == 0x5A) { // MZ header
+        if (buffer.limit() > 0x40 &&
+                buffer.get(0) == 0x4D && buffer.get(1) == 0x5A) { // MZ header
 
-            int peOffset = Utils.readDWord(fileBytes,0x3C);
-            if (peOffset + 4 < fileBytes.length &&
-                    fileBytes[peOffset] == 0x50 && fileBytes[peOffset + 1] == 0x45) { // PE header
-                int magic = Utils.readWord(fileBytes, peOffset + 24);
+            int peOffset = Utils.readDWord(buffer,0x3C);
+            if (peOffset + 4 < buffer.limit() &&
+                    buffer.get(peOffset) == 0x50 && buffer.get(peOffset + 1) == 0x45) { // PE header
+                int magic = Utils.readWord(buffer, peOffset + 24);
 
                 // Validate magic number
                 if (magic != 0x10B && magic != 0x20B) {
@@ -65,19 +81,19 @@ public class PEFileAnalyzer implements Serializable {
     }
 
     private double calculateEntropy() {
-        if (fileBytes.length == 0)
+        if (buffer.limit() == 0)
             return 0.0;
 
         int[] frequency = new int[256];
-        for (byte b : fileBytes) {
-            frequency[b & 0xFF]++;
+        for (int i = 0; i < buffer.limit(); i++) {
+            frequency[buffer.get(i) & 0xFF]++;
         }
 
         double entropy = 0.0;
         for (int count : frequency) {
             if (count == 0)
                 continue;
-            double probability = (double) count / fileBytes.length;
+            double probability = (double) count / buffer.limit();
             entropy -= probability * (Math.log(probability) / Math.log(2));
         }
         return entropy;
@@ -85,11 +101,11 @@ public class PEFileAnalyzer implements Serializable {
 
     private String generateContentPreview() {
         StringBuilder preview = new StringBuilder();
-        int previewLength = Math.min(128, fileBytes.length);
+        int previewLength = Math.min(128, buffer.limit());
 
         for (int i = 0; i < previewLength; i++) {
-            if (fileBytes[i] >= 32 && fileBytes[i] < 127) {
-                preview.append((char) fileBytes[i]);
+            if (buffer.get(i) >= 32 && buffer.get(i) < 127) {
+                preview.append((char) buffer.get(i));
             } else {
                 preview.append('.');
             }
@@ -100,7 +116,7 @@ public class PEFileAnalyzer implements Serializable {
 
 
     public long getFileSize() {
-        return fileBytes.length;
+        return buffer.limit();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,298 @@
+package Analyzers;
+
+import Utilities.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable view of the PE headers of one file. The DOS/COFF/optional headers,
+ * the data directories and the section table are parsed once and shared by all
+ * analyzers, so RVA lookups no longer rescan the section table.
+ * The file content is held as a read-only ByteBuffer, which may be a memory-mapped
+ * upload; analyzers read it with absolute gets or slices and never copy it whole.
+ */
+public final class PEImage {
+
+    public static final int DIRECTORY_EXPORT = 0;
+    public static final int DIRECTORY_IMPORT = 1;
+    public static final int DIRECTORY_RESOURCE = 2;
+    public static final int DIRECTORY_SECURITY = 4;
+
+    private static final int SECTION_HEADER_SIZE = 40;
+
+    private final ByteBuffer buffer;
+    private final int length;
+    private final int peHeaderOffset;
+    private final int optionalHeaderOffset;
+    private final int numberOfSections;
+    private final int sizeOfOptionalHeader;
+    private final int timeDateStamp;
+    private final int characteristics;
+    private final int magic;
+    private final boolean is64bit;
+    private final int[] directoryRvas = new int[16];
+    private final int[] directorySizes = new int[16];
+    private final List<Section> sections;
+
+    // Sections ordered by virtual address, used for binary search of RVAs
+    private final Section[] sectionsByRva;
+    private final int[] sectionStartRvas;
+    private final boolean overlappingSections;
+
+    private PEImage(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.length = buffer.limit();
+
+        // Check MZ header
+        if (length < 2 || buffer.get(0) != 'M' || buffer.get(1) != 'Z') {
+            throw new IllegalArgumentException("Not a valid PE file (missing MZ header)");
+        }
+
+        this.peHeaderOffset = Utils.readDWord(buffer, 0x3C);
+        if (peHeaderOffset <= 0 || peHeaderOffset + 248 >= length) {
+            throw new IllegalArgumentException("Invalid PE header offset");
+        }
+
+        // Check PE signature
+        if (Utils.readDWord(buffer, peHeaderOffset) != 0x00004550) {  // "PE\0\0"
+            throw new IllegalArgumentException("Invalid PE signature");
+        }
+
+        // COFF Header
+        this.numberOfSections = Utils.readWord(buffer, peHeaderOffset + 6);
+        this.timeDateStamp = Utils.readDWord(buffer, peHeaderOffset + 8);
+        this.sizeOfOptionalHeader = Utils.readWord(buffer, peHeaderOffset + 20);
+        this.characteristics = Utils.readWord(buffer, peHeaderOffset + 22);
+
+        // Optional Header
+        this.optionalHeaderOffset = peHeaderOffset + 24;
+        this.magic = Utils.readWord(buffer, optionalHeaderOffset);
+        this.is64bit = (magic == 0x20B);
+
+        // Data directories (32-bit: +96, 64-bit: +112)
+        int dataDirOffset = optionalHeaderOffset + (is64bit ? 112 : 96);
+        for (int i = 0; i < 16; i++) {
+            directoryRvas[i] = Utils.readDWord(buffer, dataDirOffset + (i * 8));
+            directorySizes[i] = Utils.readDWord(buffer, dataDirOffset + (i * 8) + 4);
+        }
+
+        // Section table
+        List<Section> parsed = new ArrayList<>(numberOfSections);
+        int sectionTableOffset = optionalHeaderOffset + sizeOfOptionalHeader;
+        for (int i = 0; i < numberOfSections; i++) {
+            int headerOffset = sectionTableOffset + (i * SECTION_HEADER_SIZE);
+            if (headerOffset + SECTION_HEADER_SIZE > length)
+                break;
+            parsed.add(new Section(i, buffer, headerOffset));
+        }
+        this.sections = Collections.unmodifiableList(parsed);
+
+        this.sectionsByRva = parsed.toArray(new Section[0]);
+        Arrays.sort(sectionsByRva, Comparator.comparingInt(s -> s.virtualAddress));
+        this.sectionStartRvas = new int[sectionsByRva.length];
+        boolean overlapping = false;
+        for (int i = 0; i < sectionsByRva.length; i++) {
+            sectionStartRvas[i] = sectionsByRva[i].virtualAddress;
+            if (i > 0 && sectionsByRva[i - 1].containsRva(sectionsByRva[i].virtualAddress)) {
+                overlapping = true;
+            }
+        }
+        this.overlappingSections = overlapping;
+    }
+
+    /**
+     * Parses the headers of the given file.
+     * @throws IllegalArgumentException if the bytes are not a PE image
+     */
+    public static PEImage parse(byte[] fileBytes) {
+        if (fileBytes == null) {
+            throw new IllegalArgumentException("File bytes cannot be null");
+        }
+        return parse(ByteBuffer.wrap(fileBytes));
+    }
+
+    /**
+     * Parses the headers of the file held in the buffer, from index 0 to its limit.
+     * @throws IllegalArgumentException if the content is not a PE image
+     */
+    public static PEImage parse(ByteBuffer fileBuffer) {
+        if (fileBuffer == null) {
+            throw new IllegalArgumentException("File buffer cannot be null");
+        }
+        return new PEImage(Utils.slice(fileBuffer.asReadOnlyBuffer(), 0, fileBuffer.limit()));
+    }
+
+    /**
+     * Returns the section whose virtual range contains the RVA, or null.
+     * Table order decides between overlapping sections, as the loader does.
+     */
+    public Section findSectionByRva(int rva) {
+        if (overlappingSections) {
+            for (Section section : sections) {
+                if (section.containsRva(rva)) return section;
+            }
+            return null;
+        }
+
+        // Last section starting at or before the RVA
+        int low = 0;
+        int high = sectionStartRvas.length - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sectionStartRvas[mid] <= rva) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (candidate == -1 || !sectionsByRva[candidate].containsRva(rva)) {
+            return null;
+        }
+        return sectionsByRva[candidate];
+    }
+
+    /**
+     * Converts an RVA to a file offset, or -1 if no section maps it.
+     */
+    public int rvaToOffset(int rva) {
+        Section section = findSectionByRva(rva);
+        if (section == null) {
+            return -1;
+        }
+        if (section.sizeOfRawData == 0) {
+            return rva;
+        }
+        return section.pointerToRawData + (rva - section.virtualAddress);
+    }
+
+    /**
+     * Read-only view of the whole file. Use absolute gets; the position is shared.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Independent view of length bytes at the given file offset.
+     */
+    public ByteBuffer slice(int offset, int length) {
+        return Utils.slice(buffer, offset, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int getPeHeaderOffset() {
+        return peHeaderOffset;
+    }
+
+    public int getOptionalHeaderOffset() {
+        return optionalHeaderOffset;
+    }
+
+    public int getNumberOfSections() {
+        return numberOfSections;
+    }
+
+    public int getSizeOfOptionalHeader() {
+        return sizeOfOptionalHeader;
+    }
+
+    public int getTimeDateStamp() {
+        return timeDateStamp;
+    }
+
+    public int getCharacteristics() {
+        return characteristics;
+    }
+
+    public int getMagic() {
+        return magic;
+    }
+
+    public boolean is64bit() {
+        return is64bit;
+    }
+
+    public int getDirectoryRva(int index) {
+        return directoryRvas[index];
+    }
+
+    public int getDirectorySize(int index) {
+        return directorySizes[index];
+    }
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    public static final class Section {
+        private final int index;
+        private final String name;
+        private final int virtualSize;
+        private final int virtualAddress;
+        private final int sizeOfRawData;
+        private final int pointerToRawData;
+        private final int characteristics;
+
+        private Section(int index, ByteBuffer buffer, int headerOffset) {
+            this.index = index;
+
+            // Read section name (8 bytes, null-terminated)
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 8; j++) {
+                byte b = buffer.get(headerOffset + j);
+                if (b == 0)
+                    break;
+                sb.append((char) (b & 0xFF));
+            }
+            this.name = sb.toString().trim();
+
+            this.virtualSize = Utils.readDWord(buffer, headerOffset + 8);
+            this.virtualAddress = Utils.readDWord(buffer, headerOffset + 12);
+            this.sizeOfRawData = Utils.readDWord(buffer, headerOffset + 16);
+            this.pointerToRawData = Utils.readDWord(buffer, headerOffset + 20);
+            this.characteristics = Utils.readDWord(buffer, headerOffset + 36);
+        }
+
+        private boolean containsRva(int rva) {
+            return rva >= virtualAddress && rva < virtualAddress + virtualSize;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getVirtualSize() {
+            return virtualSize;
+        }
+
+        public int getVirtualAddress() {
+            return virtualAddress;
+        }
+
+        public int getSizeOfRawData() {
+            return sizeOfRawData;
+        }
+
+        public int getPointerToRawData() {
+            return pointerToRawData;
+        }
+
+        public int getCharacteristics() {
+            return characteristics;
+        }
+    }
+}
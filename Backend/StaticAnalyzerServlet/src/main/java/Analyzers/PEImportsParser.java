@@ -1,7 +1,6 @@
 package Analyzers;
 
 import Utilities.Utils;
-import jdk.jshell.execution.Util;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
@@ -15,6 +14,7 @@ import java.util.List;
 import java.util.Map;
 
 public class PEImportsParser implements Serializable {
+    public static final int STAGE_VERSION = 1;
 
     public static class PEImportsInfo {
         private final Map<String, List<String>> imports = new LinkedHashMap<>();
@@ -43,42 +43,28 @@ public class PEImportsParser implements Serializable {
     }
 
     public PEImportsInfo parse(byte[] fileBytes) throws Exception {
-        return analyzeImports(fileBytes);
+        return parse(PEImage.parse(fileBytes));
     }
 
-    private PEImportsInfo analyzeImports(byte[] fileBytes) {
-        PEImportsInfo importsInfo = new PEImportsInfo();
-
-        // Check MZ header
-        if (fileBytes.length < 2 || fileBytes[0] != 'M' || fileBytes[1] != 'Z') {
-            throw new IllegalArgumentException("Not a valid PE file");
-        }
-
-        int peHeaderOffset = Utils.readDWord(fileBytes, 0x3C);
-        if (peHeaderOffset <= 0 || peHeaderOffset + 248 >= fileBytes.length) {
-            throw new IllegalArgumentException("Invalid PE header offset");
-        }
-
-        // Check PE signature
-        if (Utils.readDWord(fileBytes, peHeaderOffset) != 0x00004550) {
-            throw new IllegalArgumentException("Invalid PE signature");
-        }
+    public PEImportsInfo parse(PEImage image) {
+        return analyzeImports(image);
+    }
 
-        // Optional Header
-        int optionalHeaderOffset = peHeaderOffset + 24;
-        int magic = Utils.readWord(fileBytes, optionalHeaderOffset);
-        boolean is64bit = (magic == 0x20B);
+    private PEImportsInfo analyzeImports(PEImage image) {
+        PEImportsInfo importsInfo = new PEImportsInfo();
+        ByteBuffer buffer = image.getBuffer();
+        boolean is64bit = image.is64bit();
 
         // Get Import Table RVA and Size
-        int importTableRva = Utils.readDWord(fileBytes, optionalHeaderOffset + (is64bit ? 120 : 104));
-        int importTableSize = Utils.readDWord(fileBytes, optionalHeaderOffset + (is64bit ? 124 : 108));
+        int importTableRva = image.getDirectoryRva(PEImage.DIRECTORY_IMPORT);
+        int importTableSize = image.getDirectorySize(PEImage.DIRECTORY_IMPORT);
 
         if (importTableRva == 0 || importTableSize == 0) {
             return importsInfo; // No imports
         }
 
         // Convert RVA to file offset
-        int importTableOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, importTableRva);
+        int importTableOffset = image.rvaToOffset(importTableRva);
         if (importTableOffset == -1) {
             return importsInfo;
         }
@@ -89,24 +75,24 @@ public class PEImportsParser implements Serializable {
 
         while (true) {
             // Check if we've reached the null descriptor
-            if (offset + descriptorSize > fileBytes.length)
+            if (offset + descriptorSize > buffer.limit())
                 break;
 
-            int nameRva = Utils.readDWord(fileBytes, offset + 12); // Name RVA
-            int originalFirstThunk = Utils.readDWord(fileBytes, offset); // OriginalFirstThunk
-            int firstThunk = Utils.readDWord(fileBytes, offset + 16); // FirstThunk
+            int nameRva = Utils.readDWord(buffer, offset + 12); // Name RVA
+            int originalFirstThunk = Utils.readDWord(buffer, offset); // OriginalFirstThunk
+            int firstThunk = Utils.readDWord(buffer, offset + 16); // FirstThunk
 
             if (nameRva == 0 && originalFirstThunk == 0 && firstThunk == 0)
                 break;
 
             // Get DLL name
-            int nameOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, nameRva);
+            int nameOffset = image.rvaToOffset(nameRva);
             if (nameOffset == -1) {
                 offset += descriptorSize;
                 continue;
             }
 
-            String dllName = Utils.readNullTerminatedString(fileBytes, nameOffset);
+            String dllName = Utils.readNullTerminatedString(buffer, nameOffset);
             if (dllName.isEmpty()) {
                 offset += descriptorSize;
                 continue;
@@ -115,7 +101,7 @@ public class PEImportsParser implements Serializable {
             // Get the import address table (use OriginalFirstThunk if available, otherwise
             // FirstThunk)
             int thunkRva = (originalFirstThunk != 0) ? originalFirstThunk : firstThunk;
-            int thunkOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, thunkRva);
+            int thunkOffset = image.rvaToOffset(thunkRva);
             if (thunkOffset == -1) {
                 offset += descriptorSize;
                 continue;
@@ -126,11 +112,11 @@ public class PEImportsParser implements Serializable {
             int thunkEntryOffset = thunkOffset;
 
             while (true) {
-                if (thunkEntryOffset + thunkEntrySize > fileBytes.length)
+                if (thunkEntryOffset + thunkEntrySize > buffer.limit())
                     break;
 
-                long thunkValue = is64bit ? Utils.readQWord(fileBytes, thunkEntryOffset)
-                        : Utils.readDWord(fileBytes, thunkEntryOffset);
+                long thunkValue = is64bit ? Utils.readQWord(buffer, thunkEntryOffset)
+                        : Utils.readDWord(buffer, thunkEntryOffset);
                 if (thunkValue == 0)
                     break; // End of list
 
@@ -142,10 +128,10 @@ public class PEImportsParser implements Serializable {
                 } else {
                     // Named import
                     int hintNameRva = (int) (thunkValue & 0xFFFFFFFFL);
-                    int hintNameOffset = Utils.rvaToOffset(fileBytes, peHeaderOffset, hintNameRva);
+                    int hintNameOffset = image.rvaToOffset(hintNameRva);
                     if (hintNameOffset != -1) {
-                        int hint = Utils.readWord(fileBytes, hintNameOffset);
-                        String functionName = Utils.readNullTerminatedString(fileBytes, hintNameOffset + 2);
+                        int hint = Utils.readWord(buffer, hintNameOffset);
+                        String functionName = Utils.readNullTerminatedString(buffer, hintNameOffset + 2);
                         importsInfo.addImport(dllName, functionName);
                     }
                 }
@@ -2,6 +2,8 @@ package Analyzers;
 
 import Bean.PEStaticInfo;
 import Utilities.Utils;
+
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
@@ -11,6 +13,7 @@ import java.util.Map;
 import java.util.TimeZone;
 
 public class PEInfoParser {
+    public static final int STAGE_VERSION = 1;
     private static final Map<Integer, String> DLL_CHARACTERISTICS =
             new HashMap<>();
     private static final Map<Integer, String> SUBSYSTEMS = new HashMap<>();
@@ -64,35 +67,25 @@ public class PEInfoParser {
     }
 
     public PEStaticInfo getPEInfo(byte[] fileBytes) {
-        return analyzePE(fileBytes);
+        return getPEInfo(PEImage.parse(fileBytes));
     }
 
-    private PEStaticInfo analyzePE(byte[] fileBytes) {
-        PEStaticInfo info = new PEStaticInfo();
-
-        // Check MZ header
-        if (fileBytes.length < 2 || fileBytes[0] != 'M' ||
-                fileBytes[1] != 'Z') {
-            throw new IllegalArgumentException("Not a valid PE file (missing MZ header)");
-        }
-
-        int peHeaderOffset = Utils.readDWord(fileBytes, 0x3C);
-        if (peHeaderOffset <= 0 || peHeaderOffset + 248 >= fileBytes.length) {
-            throw new IllegalArgumentException("Invalid PE header offset");
-        }
+    public PEStaticInfo getPEInfo(PEImage image) {
+        return analyzePE(image);
+    }
 
-        // Check PE signature
-        if (Utils.readDWord(fileBytes, peHeaderOffset) != 0x00004550) {  // "PE\0\0"
-            throw new IllegalArgumentException("Invalid PE signature");
-        }
+    private PEStaticInfo analyzePE(PEImage image) {
+        PEStaticInfo info = new PEStaticInfo();
+        ByteBuffer buffer = image.getBuffer();
 
         // COFF Header
-        int timeDateStamp = Utils.readDWord(fileBytes, peHeaderOffset + 8);
-        int characteristics = Utils.readWord(fileBytes, peHeaderOffset + 22);
+        int peHeaderOffset = image.getPeHeaderOffset();
+        int timeDateStamp = image.getTimeDateStamp();
+        int characteristics = image.getCharacteristics();
 
         // Optional Header
-        int optionalHeaderOffset = peHeaderOffset + 24;
-        int magic = Utils.readWord(fileBytes, optionalHeaderOffset);
+        int optionalHeaderOffset = image.getOptionalHeaderOffset();
+        int magic = image.getMagic();
 
         // Validate magic number
         if (magic != 0x10B && magic != 0x20B) {
@@ -100,42 +93,41 @@ public class PEInfoParser {
                     Integer.toHexString(magic).toUpperCase());
         }
 
-        boolean is64bit = (magic == 0x20B);
+        boolean is64bit = image.is64bit();
 
         // Set basic info
-        info.setEntryPoint(Utils.readDWord(fileBytes, optionalHeaderOffset + 16));
-        info.setEntryPointSection(findSectionByRva(fileBytes,
-                peHeaderOffset, (int) info.getEntryPoint()));
-        info.setImageBase(is64bit ? Utils.readQWord(fileBytes,
+        info.setEntryPoint(Utils.readDWord(buffer, optionalHeaderOffset + 16));
+        info.setEntryPointSection(findSectionByRva(image, (int) info.getEntryPoint()));
+        info.setImageBase(is64bit ? Utils.readQWord(buffer,
                 optionalHeaderOffset + 24)
-                : Utils.readDWord(fileBytes, optionalHeaderOffset + 24));
-        info.setDigitallySigned(Utils.readDWord(fileBytes,
+                : Utils.readDWord(buffer, optionalHeaderOffset + 24));
+        info.setDigitallySigned(Utils.readDWord(buffer,
                 optionalHeaderOffset + (is64bit ? 144 : 128)) != 0);
 
         // Set versions
         //PE32 has extra row baseOfData(so adding 4 to all the PE32 files)
-        info.setOsVersionMajor(Utils.readWord(fileBytes,
+        info.setOsVersionMajor(Utils.readWord(buffer,
                 optionalHeaderOffset + 40));
-        info.setOsVersionMinor(Utils.readWord(fileBytes,
+        info.setOsVersionMinor(Utils.readWord(buffer,
                 optionalHeaderOffset + 42));
-        info.setFileVersionMajor(Utils.readWord(fileBytes,
+        info.setFileVersionMajor(Utils.readWord(buffer,
                 optionalHeaderOffset + 44));
-        info.setFileVersionMinor(Utils.readWord(fileBytes,
+        info.setFileVersionMinor(Utils.readWord(buffer,
                 optionalHeaderOffset + 46));
-        info.setSubsystemVersionMajor(Utils.readWord(fileBytes,
+        info.setSubsystemVersionMajor(Utils.readWord(buffer,
                 optionalHeaderOffset + 48));
-        info.setSubsystemVersionMinor(Utils.readWord(fileBytes,
+        info.setSubsystemVersionMinor(Utils.readWord(buffer,
                 optionalHeaderOffset + 50));
 
         // Set characteristics
-        int subsystemValue = Utils.readWord(fileBytes, optionalHeaderOffset
+        int subsystemValue = Utils.readWord(buffer, optionalHeaderOffset
                 + 68);
         info.setSubsystem(SUBSYSTEMS.getOrDefault(subsystemValue,
                 "UNKNOWN (0x" + Integer.toHexString(subsystemValue) + ")"));
         info.setImageFileCharacteristics(getCharacteristics(FILE_CHARACTERISTICS,
                 characteristics));
         info.setDllCharacteristics(getCharacteristics(DLL_CHARACTERISTICS,
-                Utils.readWord(fileBytes, optionalHeaderOffset + 70)));
+                Utils.readWord(buffer, optionalHeaderOffset + 70)));
         System.out.println(optionalHeaderOffset+70);
 
         // Set timestamp with formatted date
@@ -148,48 +140,23 @@ public class PEInfoParser {
 
         // Set other fields
         info.setTlsCallbacks(
-                Utils.readDWord(fileBytes, optionalHeaderOffset + (is64bit ?
+                Utils.readDWord(buffer, optionalHeaderOffset + (is64bit ?
                         184 : 172)) != 0 ? "Present" : "None");
         info.setClrVersion(
-                Utils.readDWord(fileBytes, optionalHeaderOffset + (is64bit ?
+                Utils.readDWord(buffer, optionalHeaderOffset + (is64bit ?
                         224 : 212)) != 0 ? "Present" : "None");
-        int richOffset = findRichHeaderOffset(fileBytes,peHeaderOffset);
+        int richOffset = findRichHeaderOffset(buffer, peHeaderOffset);
         info.setRichHeaderOffset(richOffset);
 
-        info.setXorkey(decodeRichHeader(fileBytes, richOffset));
-        info.setImportHash(calculateImportHash(fileBytes,
-                peHeaderOffset, optionalHeaderOffset, is64bit));
+        info.setXorkey(decodeRichHeader(buffer, richOffset));
+        info.setImportHash(calculateImportHash(image));
 
         return info;
     }
 
-    private String findSectionByRva(byte[] fileBytes, int
-            peHeaderOffset, int rva) {
-        int numberOfSections = Utils.readWord(fileBytes, peHeaderOffset + 6);
-        int sizeOfOptionalHeader = Utils.readWord(fileBytes, peHeaderOffset + 20);
-        int sectionTableOffset = peHeaderOffset + 24 + sizeOfOptionalHeader;
-
-        for (int i = 0; i < numberOfSections; i++) {
-            int sectionOffset = sectionTableOffset + (i * 40);
-            if (sectionOffset + 40 > fileBytes.length)
-                break;
-
-            int virtualAddress = Utils.readDWord(fileBytes, sectionOffset + 12);
-            int virtualSize = Utils.readDWord(fileBytes, sectionOffset + 8);
-            int pointerToRawData = Utils.readDWord(fileBytes, sectionOffset + 20);
-
-            if (rva >= virtualAddress && rva < virtualAddress + virtualSize) {
-                StringBuilder name = new StringBuilder();
-                for (int j = 0; j < 8; j++) {
-                    byte b = fileBytes[sectionOffset + j];
-                    if (b == 0)
-                        break;
-                    name.append((char) b);
-                }
-                return name.toString().trim();
-            }
-        }
-        return "UNKNOWN";
+    private String findSectionByRva(PEImage image, int rva) {
+        PEImage.Section section = image.findSectionByRva(rva);
+        return section != null ? section.getName() : "UNKNOWN";
     }
 
     private String getCharacteristics(Map<Integer, String> map, int value) {
@@ -204,20 +171,16 @@ public class PEInfoParser {
         return sb.toString();
     }
 
-    private String calculateImportHash(byte[] fileBytes, int
-                                               peHeaderOffset, int optionalHeaderOffset,
-                                       boolean is64bit) {
-        int importTableRva = Utils.readDWord(fileBytes, optionalHeaderOffset
-                + (is64bit ? 120 : 104));
-        int importTableSize = Utils.readDWord(fileBytes,
-                optionalHeaderOffset + (is64bit ? 124 : 108));
+    private String calculateImportHash(PEImage image) {
+        ByteBuffer buffer = image.getBuffer();
+        int importTableRva = image.getDirectoryRva(PEImage.DIRECTORY_IMPORT);
+        int importTableSize = image.getDirectorySize(PEImage.DIRECTORY_IMPORT);
 
         if (importTableRva == 0 || importTableSize == 0) {
             return "";
         }
 
-        int importTableOffset = rvaToOffset(fileBytes, peHeaderOffset,
-                importTableRva);
+        int importTableOffset = image.rvaToOffset(importTableRva);
         if (importTableOffset == -1) {
             return "";
         }
@@ -227,25 +190,25 @@ public class PEInfoParser {
             int offset = importTableOffset;
 
             while (true) {
-                int nameRva = Utils.readDWord(fileBytes, offset + 12);
+                int nameRva = Utils.readDWord(buffer, offset + 12);
                 if (nameRva == 0) break;
 
-                int nameOffset = rvaToOffset(fileBytes, peHeaderOffset, nameRva);
+                int nameOffset = image.rvaToOffset(nameRva);
                 if (nameOffset == -1) break;
 
                 // Read DLL name
                 int nameLength = 0;
-                while (nameOffset + nameLength < fileBytes.length &&
-                        fileBytes[nameOffset + nameLength] != 0) {
+                while (nameOffset + nameLength < buffer.limit() &&
+                        buffer.get(nameOffset + nameLength) != 0) {
                     nameLength++;
                 }
 
                 if (nameLength > 0) {
-                    md.update(fileBytes, nameOffset, nameLength);
+                    md.update(image.slice(nameOffset, nameLength));
                 }
 
                 offset += 20;
-                if (offset + 20 > fileBytes.length) break;
+                if (offset + 20 > buffer.limit()) break;
             }
 
             // Convert MD5 bytes to hex string
@@ -261,48 +224,26 @@ public class PEInfoParser {
         }
     }
 
-    private int rvaToOffset(byte[] fileBytes, int peHeaderOffset, int rva) {
-        int numberOfSections = Utils.readWord(fileBytes, peHeaderOffset + 6);
-        int sizeOfOptionalHeader = Utils.readWord(fileBytes, peHeaderOffset + 20);
-        int sectionTableOffset = peHeaderOffset + 24 + sizeOfOptionalHeader;
-
-        for (int i = 0; i < numberOfSections; i++) {
-            int sectionOffset = sectionTableOffset + (i * 40);
-            if (sectionOffset + 40 > fileBytes.length)
-                break;
-
-            int virtualAddress = Utils.readDWord(fileBytes, sectionOffset + 12);
-            int virtualSize = Utils.readDWord(fileBytes, sectionOffset + 8);
-            int pointerToRawData = Utils.readDWord(fileBytes, sectionOffset + 20);
-            int sizeOfRawData = Utils.readDWord(fileBytes, sectionOffset + 16);
-
-            if (rva >= virtualAddress && rva < virtualAddress + virtualSize) {
-                if (sizeOfRawData == 0) {
-                    return rva;
-                }
-                return pointerToRawData + (rva - virtualAddress);
-            }
-        }
-        return -1;
-    }
-    private static int findRichHeaderOffset(byte[] fileBytes, int peHeaderOffset) {
+    private static int findRichHeaderOffset(ByteBuffer buffer, int peHeaderOffset) {
         // Search backwards from PE header for "Rich" (0x68636952)
         final int searchWindow = 256; // Reasonable search range
         int startPos = Math.max(0, peHeaderOffset - searchWindow);
 
         for (int i = peHeaderOffset - 4; i >= startPos; i--) {
-            if (fileBytes[i] == 0x52 && fileBytes[i+1] == 0x69 &&
-                    fileBytes[i+2] == 0x63 && fileBytes[i+3] == 0x68) {  // "Rich"
+            if (buffer.get(i) == 0x52 && buffer.get(i+1) == 0x69 &&
+                    buffer.get(i+2) == 0x63 && buffer.get(i+3) == 0x68) {  // "Rich"
                 return i;
             }
         }
         return -1;
     }
 
-    private static String decodeRichHeader(byte[] fileBytes, int richOffset) {
+    private static String decodeRichHeader(ByteBuffer buffer, int richOffset) {
         // Read XOR key (4 bytes after Rich signature and checksum)
         byte[] xorKey = new byte[4];
-        System.arraycopy(fileBytes, richOffset + 4, xorKey, 0, 4);
+        for (int i = 0; i < 4; i++) {
+            xorKey[i] = buffer.get(richOffset + 4 + i);
+        }
 
         System.out.printf("Found Rich Header at offset 0x%X\n", richOffset);
         System.out.printf("XOR Key: 0x%02X 0x%02X 0x%02X 0x%02X\n",
@@ -320,12 +261,12 @@ public class PEInfoParser {
 
 
         while (true) {
-            if (entryOffset + 8 > fileBytes.length) break;
+            if (entryOffset + 8 > buffer.limit()) break;
 
             // XOR decrypt each byte with the key
             byte[] decrypted = new byte[8];
             for (int i = 0; i < 8; i++) {
-                decrypted[i] = (byte)(fileBytes[entryOffset + i] ^ xorKey[i % 4]);
+                decrypted[i] = (byte)(buffer.get(entryOffset + i) ^ xorKey[i % 4]);
             }
 
             int id = (decrypted[1] & 0xFF) << 8 | (decrypted[0] & 0xFF);
@@ -5,7 +5,6 @@ import Utilities.Utils;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -14,8 +13,10 @@ import java.util.List;
 import java.util.Map;
 
 public class PEResourceAnalyzer implements Serializable {
+    public static final int STAGE_VERSION = 1;
 
-    private final byte[] fileBytes;
+    private final transient ByteBuffer buffer;
+    private final transient PEImage image;
     private final List<ResourceEntry> resources = new ArrayList<>();
     private int resourceSectionOffset = -1;
     private int resourceSectionRva;
@@ -47,44 +48,25 @@ public class PEResourceAnalyzer implements Serializable {
     }
 
     public PEResourceAnalyzer(byte[] fileBytes) {
-        this.fileBytes = fileBytes;
+        this(PEImage.parse(fileBytes));
+    }
+
+    public PEResourceAnalyzer(PEImage image) {
+        this.image = image;
+        this.buffer = image.getBuffer();
         parseResources();
     }
 
     private void parseResources() {
-        // Check MZ header
-        if (fileBytes.length < 2 || fileBytes[0] != 'M' || fileBytes[1] != 'Z') {
-            System.err.println("Error: Not a valid PE file (missing MZ header)");
-            return;
-        }
-
-        int peHeaderOffset = Utils.readDWord(fileBytes,0x3C);
-        if (peHeaderOffset <= 0 || peHeaderOffset + 248 >= fileBytes.length) {
-            System.err.println("Invalid PE header offset");
-            return;
-        }
-
-        // Check PE signature
-        if (Utils.readDWord(fileBytes,peHeaderOffset) != 0x00004550) {
-            System.err.println("Invalid PE signature");
-            return;
-        }
-        int optionalHeaderMagic = ByteBuffer.wrap(fileBytes, peHeaderOffset + 24, 2)
-                .order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
-        boolean is64Bit = (optionalHeaderMagic == 0x20B);
-
-        // 3. Calculate data directory offset (32-bit: +96, 64-bit: +112)
-        int dataDirOffset = peHeaderOffset + 24 + (is64Bit ? 112 : 96);
-
-        this.resourceSectionRva = Utils.readDWord(fileBytes,dataDirOffset + (2 * 8));
-        this.resourceSectionSize = Utils.readDWord(fileBytes,dataDirOffset + (2 * 8) + 4);
+        this.resourceSectionRva = image.getDirectoryRva(PEImage.DIRECTORY_RESOURCE);
+        this.resourceSectionSize = image.getDirectorySize(PEImage.DIRECTORY_RESOURCE);
 
         if (resourceSectionRva == 0 || resourceSectionSize == 0) {
             System.err.println("No resource section found");
             return;
         }
 
-        this.resourceSectionOffset = findSectionOffset(resourceSectionRva);
+        this.resourceSectionOffset = image.rvaToOffset(resourceSectionRva);
         if (resourceSectionOffset == -1) {
             System.err.println("Could not locate resource section in file");
             return;
@@ -93,53 +75,25 @@ public class PEResourceAnalyzer implements Serializable {
         parseResourceDirectory(resourceSectionOffset, 0, "");
     }
 
-    private int findSectionOffset(int rva) {
-        int peHeaderOffset = Utils.readDWord(fileBytes,0x3C);
-        int numSections = Utils.readWord(fileBytes,peHeaderOffset + 6);
-        int optionalHeaderSize = Utils.readWord(fileBytes,peHeaderOffset + 20);
-        int sectionTableOffset = peHeaderOffset + 24 + optionalHeaderSize;
-
-        for (int i = 0; i < numSections; i++) {
-            int sectionOffset = sectionTableOffset + (i * 40);
-            if (sectionOffset + 40 > fileBytes.length) {
-                System.err.println("Section table entry out of bounds");
-                break;
-            }
-
-            int virtualAddress = Utils.readDWord(fileBytes,sectionOffset + 12);
-            int virtualSize = Utils.readDWord(fileBytes,sectionOffset + 8);
-            int pointerToRawData = Utils.readDWord(fileBytes,sectionOffset + 20);
-            int sizeOfRawData = Utils.readDWord(fileBytes,sectionOffset + 16);
-
-            if (rva >= virtualAddress && rva < virtualAddress + virtualSize) {
-                if (sizeOfRawData == 0) {
-                    return rva;
-                }
-                return pointerToRawData + (rva - virtualAddress);
-            }
-        }
-        return -1;
-    }
-
     private void parseResourceDirectory(int offset, int level, String path) {
-        if (offset < 0 || offset + 16 >= fileBytes.length) {
+        if (offset < 0 || offset + 16 >= buffer.limit()) {
             System.err.println("Invalid directory offset: 0x" + Integer.toHexString(offset));
             return;
         }
 
-        int numberOfNamedEntries = Utils.readWord(fileBytes,offset + 12);
-        int numberOfIdEntries = Utils.readWord(fileBytes,offset + 14);
+        int numberOfNamedEntries = Utils.readWord(buffer,offset + 12);
+        int numberOfIdEntries = Utils.readWord(buffer,offset + 14);
         int totalEntries = numberOfNamedEntries + numberOfIdEntries;
 
         int entryOffset = offset + 16;
         for (int i = 0; i < totalEntries; i++) {
-            if (entryOffset + 8 >= fileBytes.length) {
+            if (entryOffset + 8 >= buffer.limit()) {
                 System.err.println("Invalid entry offset: 0x" + Integer.toHexString(entryOffset));
                 break;
             }
 
-            int nameId = Utils.readDWord(fileBytes,entryOffset);
-            int dataOffset = Utils.readDWord(fileBytes,entryOffset + 4);
+            int nameId = Utils.readDWord(buffer,entryOffset);
+            int dataOffset = Utils.readDWord(buffer,entryOffset + 4);
 
             if ((nameId & 0x80000000) != 0) {
                 int nameOffset = nameId & 0x7FFFFFFF;
@@ -159,15 +113,15 @@ public class PEResourceAnalyzer implements Serializable {
             parseResourceDirectory(resourceSectionOffset + subdirOffset, level + 1, path);
         } else {
             int dataEntryOffset = resourceSectionOffset + dataOffset;
-            if (dataEntryOffset < 0 || dataEntryOffset + 16 >= fileBytes.length) {
+            if (dataEntryOffset < 0 || dataEntryOffset + 16 >= buffer.limit()) {
                 System.err.println("Invalid data entry offset: 0x" + Integer.toHexString(dataEntryOffset));
                 return;
             }
 
             ResourceEntry entry = new ResourceEntry();
-            entry.rva = Utils.readDWord(fileBytes,dataEntryOffset);
-            entry.size = Utils.readDWord(fileBytes,dataEntryOffset + 4);
-            entry.fileOffset = findSectionOffset(entry.rva);
+            entry.rva = Utils.readDWord(buffer,dataEntryOffset);
+            entry.size = Utils.readDWord(buffer,dataEntryOffset + 4);
+            entry.fileOffset = image.rvaToOffset(entry.rva);
 
             // Parse path to extract type and IDs
             String[] parts = path.split("/");
@@ -196,13 +150,13 @@ public class PEResourceAnalyzer implements Serializable {
 
 
     private void analyzeResourceContent(ResourceEntry entry) {
-        if (entry.fileOffset == -1 || entry.size <= 0 || entry.fileOffset + 8 >= fileBytes.length) {
+        if (entry.fileOffset == -1 || entry.size <= 0 || entry.fileOffset + 8 >= buffer.limit()) {
             entry.details = "";
             return;
         }
 
         byte[] header = new byte[Math.min(8, entry.size)];
-        System.arraycopy(fileBytes, entry.fileOffset, header, 0, header.length);
+        image.slice(entry.fileOffset, header.length).get(header);
 
         // Check for common image formats regardless of resource type name
         if (header.length >= 8) {
@@ -251,14 +205,13 @@ public class PEResourceAnalyzer implements Serializable {
 
 
     private String readUnicodeString(int offset) {
-        if (offset < 0 || offset + 2 > fileBytes.length) {
+        if (offset < 0 || offset + 2 > buffer.limit()) {
             return "";
         }
 
         StringBuilder sb = new StringBuilder();
-        while (offset + 1 < fileBytes.length) {
-            char c = (char) ByteBuffer.wrap(fileBytes, offset, 2)
-                    .order(ByteOrder.LITTLE_ENDIAN).getShort();
+        while (offset + 1 < buffer.limit()) {
+            char c = (char) Utils.readWord(buffer, offset);
             if (c == 0) break;
             sb.append(c);
             offset += 2;
@@ -4,7 +4,6 @@ import Bean.PESection;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
@@ -12,49 +11,32 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class PESectionAnalyzer implements Serializable {
+    public static final int STAGE_VERSION = 1;
 
-    private final byte[] fileBytes;
+    private final transient ByteBuffer buffer;
+    private final transient PEImage image;
     private final List<PESection> sections = new ArrayList<>();
 
     public PESectionAnalyzer(byte[] fileBytes) {
-        this.fileBytes = fileBytes;
+        this(PEImage.parse(fileBytes));
+    }
+
+    public PESectionAnalyzer(PEImage image) {
+        this.image = image;
+        this.buffer = image.getBuffer();
         parseSections();
     }
 
     private void parseSections() {
-        // Get PE header offset
-        int peOffset = ByteBuffer.wrap(fileBytes, 0x3C, 4)
-                .order(ByteOrder.LITTLE_ENDIAN).getInt();
-
-        // Get number of sections
-        int numSections = ByteBuffer.wrap(fileBytes, peOffset + 6, 2)
-                .order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
-
-        // Get section headers start (after optional header)
-        int optionalHeaderSize = ByteBuffer.wrap(fileBytes, peOffset + 20, 2)
-                .order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
-        int sectionOffset = peOffset + 24 + optionalHeaderSize;
-
-        // Parse each section
-        for (int i = 0; i < numSections; i++) {
+        for (PEImage.Section header : image.getSections()) {
             PESection section = new PESection();
 
-            // Read section name (8 bytes)
-            byte[] nameBytes = new byte[8];
-            System.arraycopy(fileBytes, sectionOffset, nameBytes, 0, 8);
-            section.name = new String(nameBytes).trim();
-
-            // Read section characteristics
-            section.virtualSize = ByteBuffer.wrap(fileBytes, sectionOffset + 8, 4)
-                    .order(ByteOrder.LITTLE_ENDIAN).getInt();
-            section.virtualAddress = ByteBuffer.wrap(fileBytes, sectionOffset + 12, 4)
-                    .order(ByteOrder.LITTLE_ENDIAN).getInt();
-            section.rawSize = ByteBuffer.wrap(fileBytes, sectionOffset + 16, 4)
-                    .order(ByteOrder.LITTLE_ENDIAN).getInt();
-            section.rawOffset = ByteBuffer.wrap(fileBytes, sectionOffset + 20, 4)
-                    .order(ByteOrder.LITTLE_ENDIAN).getInt();
-            section.characteristics = ByteBuffer.wrap(fileBytes, sectionOffset + 36, 4)
-                    .order(ByteOrder.LITTLE_ENDIAN).getInt();
+            section.name = header.getName();
+            section.virtualSize = header.getVirtualSize();
+            section.virtualAddress = header.getVirtualAddress();
+            section.rawSize = header.getSizeOfRawData();
+            section.rawOffset = header.getPointerToRawData();
+            section.characteristics = header.getCharacteristics();
 
             // Calculate MD5 hash of section content
             section.md5 = calculateSectionMD5(section);
@@ -66,7 +48,6 @@ public class PESectionAnalyzer implements Serializable {
             section.type = determineSectionType(section);
 
             sections.add(section);
-            sectionOffset += 40; // Move to next section header
         }
     }
 
@@ -76,8 +57,8 @@ public class PESectionAnalyzer implements Serializable {
 
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
-            int end = Math.min(section.rawOffset + section.rawSize, fileBytes.length);
-            md.update(fileBytes, section.rawOffset, end - section.rawOffset);
+            int end = Math.min(section.rawOffset + section.rawSize, buffer.limit());
+            md.update(image.slice(section.rawOffset, end - section.rawOffset));
             byte[] digest = md.digest();
 
             StringBuilder sb = new StringBuilder();
@@ -96,10 +77,10 @@ public class PESectionAnalyzer implements Serializable {
 
         int[] frequency = new int[256];
         int count = 0;
-        int end = Math.min(section.rawOffset + section.rawSize, fileBytes.length);
+        int end = Math.min(section.rawOffset + section.rawSize, buffer.limit());
 
         for (int i = section.rawOffset; i < end; i++) {
-            frequency[fileBytes[i] & 0xFF]++;
+            frequency[buffer.get(i) & 0xFF]++;
             count++;
         }
 
@@ -0,0 +1,136 @@
+package Analyzers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The nine regex scans that {@link ArtifactMatcher} replaced, each run over the whole text.
+ * Kept as the reference the matcher is checked against (-Dartifacts.verifyMatcher); too
+ * slow to extract with.
+ */
+final class RegexArtifactScan {
+
+    private static final Pattern URL_PATTERN = Pattern.compile(
+            "(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]");
+    private static final Pattern FILE_PATTERN = Pattern.compile(
+            "(?i)\\b[a-z]:\\\\(?:[^\\\\/:*?\"<>|\\r\\n]+\\\\)*[^\\\\/:*?\"<>|\\r\\n]*");
+    private static final Pattern IP_PATTERN = Pattern.compile(
+            "\\b(?:\\d{1,3}\\.){3}\\d{1,3}\\b");
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(
+            "[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,6}");
+    private static final Pattern REGISTRY_PATTERN = Pattern.compile(
+            "HKEY_[A-Z_]+\\\\[^\\\\]+(\\\\[^\\\\]+)*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DOMAIN_PATTERN = Pattern.compile(
+            "(?:[a-z0-9](?:[a-z0-9-]{0,61}[a-z0-9])?\\.)+[a-z0-9][a-z0-9-]{0,61}[a-z0-9]",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern API_PATTERN = Pattern.compile(
+            "\\b(?:Create|Open|Read|Write|Close|Delete|Find|Get|Set|Send|Receive|Put)[A-Z][a-zA-Z]+\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern METADATA_PATTERN = Pattern.compile(
+            "\\b(?:CompanyName|FileDescription|FileVersion|InternalName|LegalCopyright|" +
+                    "OriginalFilename|ProductName|ProductVersion|Assembly Version|BuildDate)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private RegexArtifactScan() {}
+
+    /**
+     * Artifacts by type, in the same order and with the same types left out as
+     * {@link ArtifactMatcher#match(String)}.
+     */
+    static Map<String, Set<String>> match(String content) {
+        Set<String> urls = find(URL_PATTERN, content);
+        urls.removeIf(url -> url.contains("example.com"));
+        Set<String> emails = find(EMAIL_PATTERN, content);
+        emails.removeIf(email -> email.endsWith("@example.com"));
+        Set<String> domains = new LinkedHashSet<>();
+        for (String domain : find(DOMAIN_PATTERN, content)) {
+            domains.add(domain.toLowerCase());
+        }
+
+        Map<String, Set<String>> artifacts = new LinkedHashMap<>();
+        put(artifacts, "urls", urls);
+        put(artifacts, "filePaths", find(FILE_PATTERN, content));
+        put(artifacts, "ipAddresses", find(IP_PATTERN, content));
+        put(artifacts, "emailAddresses", emails);
+        put(artifacts, "registryKeys", find(REGISTRY_PATTERN, content));
+        put(artifacts, "domains", domains);
+        put(artifacts, "apiCalls", find(API_PATTERN, content));
+        put(artifacts, "metadata", find(METADATA_PATTERN, content));
+        put(artifacts, "interestingStrings", findInterestingStrings(content));
+        return artifacts;
+    }
+
+    /**
+     * Types whose matches differ, with the matches only one side found or, when both found
+     * the same ones, a note that the order differs. Empty when the results are the same.
+     */
+    static List<String> differences(Map<String, Set<String>> expected, Map<String, Set<String>> actual) {
+        Set<String> types = new LinkedHashSet<>(expected.keySet());
+        types.addAll(actual.keySet());
+        List<String> differences = new ArrayList<>();
+        for (String type : types) {
+            List<String> want = new ArrayList<>(expected.getOrDefault(type, new LinkedHashSet<>()));
+            List<String> got = new ArrayList<>(actual.getOrDefault(type, new LinkedHashSet<>()));
+            if (want.equals(got)) {
+                continue;
+            }
+            List<String> missing = new ArrayList<>(want);
+            missing.removeAll(got);
+            List<String> extra = new ArrayList<>(got);
+            extra.removeAll(want);
+            differences.add(missing.isEmpty() && extra.isEmpty()
+                    ? type + ": same matches in a different order"
+                    : type + ": missing " + sample(missing) + ", extra " + sample(extra));
+        }
+        return differences;
+    }
+
+    private static String sample(List<String> values) {
+        return values.size() <= 5 ? values.toString()
+                : values.subList(0, 5) + " and " + (values.size() - 5) + " more";
+    }
+
+    private static void put(Map<String, Set<String>> artifacts, String type, Set<String> found) {
+        if (!found.isEmpty()) {
+            artifacts.put(type, found);
+        }
+    }
+
+    private static Set<String> find(Pattern pattern, String content) {
+        Set<String> found = new LinkedHashSet<>();
+        Matcher matcher = pattern.matcher(content);
+        while (matcher.find()) {
+            found.add(matcher.group());
+        }
+        return found;
+    }
+
+    private static Set<String> findInterestingStrings(String content) {
+        InterestingKeywords keywords = InterestingKeywords.get();
+        StringBuilder alternatives = new StringBuilder();
+        for (String keyword : keywords.getKeywords()) {
+            if (alternatives.length() > 0) {
+                alternatives.append('|');
+            }
+            alternatives.append(Pattern.quote(keyword));
+        }
+        Set<String> interesting = new LinkedHashSet<>();
+        if (alternatives.length() == 0) {
+            return interesting;
+        }
+        Pattern pattern = Pattern.compile(".*(" + alternatives + ").*",
+                keywords.isIgnoreCase() ? Pattern.CASE_INSENSITIVE : 0);
+        for (String line : content.split("\n")) {
+            if (line.length() > 6 && line.length() < 256 && pattern.matcher(line).matches()) {
+                interesting.add(line);
+            }
+        }
+        return interesting;
+    }
+}
@@ -0,0 +1,392 @@
+package Analyzers;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Every string of a file, found in one pass over its bytes. Three kinds of runs are tracked
+ * side by side, each needing at least 4 chars:
+ *  - LATIN1: bytes 32-126 and 128-255, cut at 2048 chars (the whole-file rules)
+ *  - ASCII: bytes 32-126, no cap (the per-section rules)
+ *  - UTF16LE: printable ASCII chars each followed by a zero byte, at either byte parity
+ *    (off with -Dstrings.utf16=false)
+ *
+ * Runs are held as primitive arrays of offset, length in chars, encoding and the section
+ * the run starts in, sorted by offset. Text is decoded from the file's bytes only when a
+ * view asks for it, so the whole-file and per-section views cost no further scan.
+ */
+public final class StringTable {
+
+    public static final byte LATIN1 = 0;
+    public static final byte ASCII = 1;
+    public static final byte UTF16LE = 2;
+
+    private static final int MIN_STRING_LENGTH = 4;
+    private static final int MAX_LATIN1_LENGTH = 2048;
+    private static final boolean SCAN_UTF16 =
+            Boolean.parseBoolean(System.getProperty("strings.utf16", "true"));
+
+    private final ByteBuffer buffer;
+    private int count;
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private byte[] encodings = new byte[1024];
+    private int[] sections;
+    // Longest ASCII or UTF-16LE run in bytes, bounds the runs that can reach into a range
+    private int maxSpan;
+
+    private StringTable(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public static StringTable scan(PEImage image) {
+        StringTable table = new StringTable(image.getBuffer());
+        table.scan();
+        table.sortByOffset();
+        table.assignSections(image.getSections());
+        return table;
+    }
+
+    private void scan() {
+        int limit = buffer.limit();
+        int latin1Start = 0;
+        int latin1Length = 0;
+        int asciiStart = 0;
+        int asciiLength = 0;
+        int[] wideStart = new int[2];
+        int[] wideLength = new int[2];
+        int previous = 0;
+
+        for (int i = 0; i < limit; i++) {
+            int b = buffer.get(i) & 0xFF;
+            boolean ascii = b >= 32 && b < 127;
+
+            // The char that would pass the cap is dropped, as the old whole-file scan did
+            if ((ascii || b >= 128) && latin1Length < MAX_LATIN1_LENGTH) {
+                if (latin1Length++ == 0) latin1Start = i;
+            } else {
+                add(latin1Start, latin1Length, LATIN1);
+                latin1Length = 0;
+            }
+
+            if (ascii) {
+                if (asciiLength++ == 0) asciiStart = i;
+            } else {
+                add(asciiStart, asciiLength, ASCII);
+                asciiLength = 0;
+            }
+
+            // The char pair ending here continues or ends the wide run of its parity
+            if (SCAN_UTF16 && i > 0) {
+                int parity = (i - 1) & 1;
+                if (b == 0 && previous >= 32 && previous < 127) {
+                    if (wideLength[parity]++ == 0) wideStart[parity] = i - 1;
+                } else {
+                    add(wideStart[parity], wideLength[parity], UTF16LE);
+                    wideLength[parity] = 0;
+                }
+            }
+            previous = b;
+        }
+
+        add(latin1Start, latin1Length, LATIN1);
+        add(asciiStart, asciiLength, ASCII);
+        add(wideStart[0], wideLength[0], UTF16LE);
+        add(wideStart[1], wideLength[1], UTF16LE);
+    }
+
+    private void add(int offset, int length, byte encoding) {
+        if (length < MIN_STRING_LENGTH) {
+            return;
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            encodings = Arrays.copyOf(encodings, count * 2);
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        encodings[count] = encoding;
+        count++;
+        if (encoding != LATIN1) {
+            maxSpan = Math.max(maxSpan, length * unit(encoding));
+        }
+    }
+
+    /**
+     * Runs are found in the order they end; views want them in the order they start.
+     */
+    private void sortByOffset() {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) offsets[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] sortedOffsets = new int[count];
+        int[] sortedLengths = new int[count];
+        byte[] sortedEncodings = new byte[count];
+        for (int i = 0; i < count; i++) {
+            int from = (int) keys[i];
+            sortedOffsets[i] = offsets[from];
+            sortedLengths[i] = lengths[from];
+            sortedEncodings[i] = encodings[from];
+        }
+        offsets = sortedOffsets;
+        lengths = sortedLengths;
+        encodings = sortedEncodings;
+    }
+
+    /**
+     * Gives each string the first section in table order whose raw data holds its offset.
+     * The raw ranges are cut at every section start and end once, each piece owned by the
+     * lowest-numbered section covering it, and each string binary-searches the pieces, so
+     * a file with many (or overlapping) section headers costs O((strings + sections) log sections).
+     */
+    private void assignSections(List<PEImage.Section> sectionList) {
+        int sectionCount = sectionList.size();
+        long[] starts = new long[sectionCount];
+        long[] ends = new long[sectionCount];
+        long[] bounds = new long[2 * sectionCount];
+        Integer[] byStart = new Integer[sectionCount];
+        for (int s = 0; s < sectionCount; s++) {
+            PEImage.Section section = sectionList.get(s);
+            starts[s] = section.getPointerToRawData() & 0xFFFFFFFFL;
+            ends[s] = starts[s] + (section.getSizeOfRawData() & 0xFFFFFFFFL);
+            bounds[2 * s] = starts[s];
+            bounds[2 * s + 1] = ends[s];
+            byStart[s] = s;
+        }
+        Arrays.sort(byStart, Comparator.comparingLong((Integer s) -> starts[s]));
+        Arrays.sort(bounds);
+        int boundCount = 0;
+        for (int b = 0; b < bounds.length; b++) {
+            if (b == 0 || bounds[b] != bounds[b - 1]) {
+                bounds[boundCount++] = bounds[b];
+            }
+        }
+
+        // Owner of [bounds[k], bounds[k + 1]); sections that have ended leave the queue lazily
+        int[] owners = new int[boundCount];
+        PriorityQueue<Integer> covering = new PriorityQueue<>();
+        int next = 0;
+        for (int k = 0; k < boundCount; k++) {
+            while (next < sectionCount && starts[byStart[next]] <= bounds[k]) {
+                int s = byStart[next++];
+                if (ends[s] > starts[s]) {
+                    covering.add(s);
+                }
+            }
+            while (!covering.isEmpty() && ends[covering.peek()] <= bounds[k]) {
+                covering.poll();
+            }
+            owners[k] = covering.isEmpty() ? -1 : covering.peek();
+        }
+
+        sections = new int[count];
+        for (int i = 0; i < count; i++) {
+            int k = Arrays.binarySearch(bounds, 0, boundCount, offsets[i]);
+            if (k < 0) {
+                k = -k - 2;
+            }
+            sections[i] = k < 0 ? -1 : owners[k];
+        }
+    }
+
+    public static boolean isScanningUtf16() {
+        return SCAN_UTF16;
+    }
+
+    private static int unit(byte encoding) {
+        return encoding == UTF16LE ? 2 : 1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public byte getEncoding(int index) {
+        return encodings[index];
+    }
+
+    /**
+     * Index in the section table of the section the string starts in, or -1.
+     */
+    public int getSection(int index) {
+        return sections[index];
+    }
+
+    public String getText(int index) {
+        StringBuilder text = new StringBuilder(lengths[index]);
+        int unit = unit(encodings[index]);
+        appendChars(text, offsets[index], offsets[index] + lengths[index] * unit, unit);
+        return text.toString();
+    }
+
+    /**
+     * Decodes a string into target, which must hold getLength(index) chars; returns that length.
+     */
+    public int copyChars(int index, char[] target) {
+        int unit = unit(encodings[index]);
+        int position = offsets[index];
+        for (int i = 0; i < lengths[index]; i++, position += unit) {
+            target[i] = (char) (buffer.get(position) & 0xFF);
+        }
+        return lengths[index];
+    }
+
+    /**
+     * The strings of a byte range as a scan of just that range would find them: ASCII and
+     * UTF-16LE runs cut to the range, in offset order, one per line.
+     */
+    public String rangeText(int start, int end) {
+        StringBuilder text = new StringBuilder();
+        for (int i = firstAtOrAfter(start - maxSpan); i < count && offsets[i] < end; i++) {
+            byte encoding = encodings[i];
+            if (encoding == LATIN1) {
+                continue;
+            }
+            int unit = unit(encoding);
+            int first = offsets[i];
+            int last = first + lengths[i] * unit;
+            if (first < start) {
+                first += (start - first + unit - 1) / unit * unit;
+            }
+            if (last > end) {
+                last -= (last - end + unit - 1) / unit * unit;
+            }
+            if (last - first < MIN_STRING_LENGTH * unit) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            appendChars(text, first, last, unit);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The LATIN1 and UTF-16LE strings of the whole file in offset order, one per line,
+     * decoded while they are read.
+     */
+    public Reader fileText() {
+        return new FileTextReader();
+    }
+
+    /**
+     * Length of {@link #fileText()}.
+     */
+    public long fileTextChars() {
+        long chars = 0;
+        int strings = 0;
+        for (int i = 0; i < count; i++) {
+            if (encodings[i] != ASCII) {
+                chars += lengths[i];
+                strings++;
+            }
+        }
+        return chars + Math.max(0, strings - 1);
+    }
+
+    /**
+     * Splits the whole-file strings into runs of about chunkChars chars, never inside a
+     * string. Returns the table indexes where the runs start, followed by size().
+     */
+    public int[] fileTextChunks(long chunkChars) {
+        int[] bounds = new int[8];
+        int chunks = 0;
+        long chars = 0;
+        for (int i = 0; i < count; i++) {
+            if (encodings[i] == ASCII) {
+                continue;
+            }
+            if (chars >= chunkChars) {
+                if (chunks + 3 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[++chunks] = i;
+                chars = 0;
+            }
+            chars += lengths[i] + 1;
+        }
+        bounds[++chunks] = count;
+        return Arrays.copyOf(bounds, chunks + 1);
+    }
+
+    private int firstAtOrAfter(int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void appendChars(StringBuilder text, int from, int to, int unit) {
+        for (int position = from; position < to; position += unit) {
+            text.append((char) (buffer.get(position) & 0xFF));
+        }
+    }
+
+    private final class FileTextReader extends Reader {
+        private int entry = -1;
+        private int position;
+        private int end;
+        private int unit;
+        private boolean started;
+        private boolean newlinePending;
+
+        @Override
+        public int read(char[] target, int offset, int length) {
+            int read = 0;
+            while (read < length) {
+                if (newlinePending) {
+                    target[offset + read++] = '\n';
+                    newlinePending = false;
+                } else if (position < end) {
+                    target[offset + read++] = (char) (buffer.get(position) & 0xFF);
+                    position += unit;
+                } else if (!nextString()) {
+                    break;
+                }
+            }
+            return read == 0 && length > 0 ? -1 : read;
+        }
+
+        private boolean nextString() {
+            while (++entry < count) {
+                if (encodings[entry] != ASCII) {
+                    unit = unit(encodings[entry]);
+                    position = offsets[entry];
+                    end = position + lengths[entry] * unit;
+                    newlinePending = started;
+                    started = true;
+                    return true;
+                }
+            }
+            entry = count;
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
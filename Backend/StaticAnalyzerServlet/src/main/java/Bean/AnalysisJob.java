@@ -0,0 +1,102 @@
+package Bean;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Status of one background analysis, as reported by GET /analyze/jobs/{id}.
+ * Updated by the worker and the analysis pool while it is being read by pollers,
+ * so every accessor is synchronized.
+ */
+public class AnalysisJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String jobId;
+    private final String sha1;
+    private final String fileName;
+    private final int analyzerVersion;
+    private final long submittedAt = System.currentTimeMillis();
+    private final Map<String, String> stages = new LinkedHashMap<>();
+    private Status status = Status.QUEUED;
+    private long startedAt;
+    private long finishedAt;
+    private Integer fileId;
+    private String error;
+
+    public AnalysisJob(String jobId, String sha1, String fileName, int analyzerVersion, List<String> stageNames) {
+        this.jobId = jobId;
+        this.sha1 = sha1;
+        this.fileName = fileName;
+        this.analyzerVersion = analyzerVersion;
+        for (String stage : stageNames) {
+            stages.put(stage, "pending");
+        }
+    }
+
+    public synchronized void updateStage(String stage, String state) {
+        stages.put(stage, state);
+    }
+
+    public synchronized void start() {
+        status = Status.RUNNING;
+        startedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void complete(Integer fileId) {
+        this.fileId = fileId;
+        status = Status.DONE;
+        finishedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void fail(String error) {
+        this.error = error;
+        status = Status.FAILED;
+        finishedAt = System.currentTimeMillis();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getAnalyzerVersion() {
+        return analyzerVersion;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized long getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public synchronized Integer getFileId() {
+        return fileId;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized Map<String, String> getStages() {
+        return new LinkedHashMap<>(stages);
+    }
+}
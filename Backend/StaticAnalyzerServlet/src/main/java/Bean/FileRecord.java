@@ -0,0 +1,49 @@
+package Bean;
+
+import java.io.Serializable;
+
+/**
+ * The Files row of one analysis, as needed to serve it again: ids, version and report paths.
+ */
+public class FileRecord implements Serializable {
+    private final int fileId;
+    private final String sha1Hash;
+    private final String sha256Hash;
+    private final int analyzerVersion;
+    private final String jsonFilePath;
+    private final String artifactsFilePath;
+
+    public FileRecord(int fileId, String sha1Hash, String sha256Hash, int analyzerVersion,
+                      String jsonFilePath, String artifactsFilePath) {
+        this.fileId = fileId;
+        this.sha1Hash = sha1Hash;
+        this.sha256Hash = sha256Hash;
+        this.analyzerVersion = analyzerVersion;
+        this.jsonFilePath = jsonFilePath;
+        this.artifactsFilePath = artifactsFilePath;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public String getSha1Hash() {
+        return sha1Hash;
+    }
+
+    public String getSha256Hash() {
+        return sha256Hash;
+    }
+
+    public int getAnalyzerVersion() {
+        return analyzerVersion;
+    }
+
+    public String getJsonFilePath() {
+        return jsonFilePath;
+    }
+
+    public String getArtifactsFilePath() {
+        return artifactsFilePath;
+    }
+}
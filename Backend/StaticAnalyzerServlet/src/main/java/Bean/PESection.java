@@ -1,6 +1,8 @@
 package Bean;
 
-public class PESection {
+import java.io.Serializable;
+
+public class PESection implements Serializable {
     public String name;
     public int virtualSize;
     public int virtualAddress;
@@ -0,0 +1,101 @@
+package Bean;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A finished analysis waiting in the write-behind journal: the rows to insert and the
+ * report and artifacts documents to write, already in their on-disk encoding
+ * (see Utilities.ReportCodec), with the paths recorded in the Files row.
+ */
+public class PendingAnalysis implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String sha1Hash;
+    private final int analyzerVersion;
+    private final PEFileInfo fileInfo;
+    private final PEStaticInfo staticInfo;
+    private final List<DataDirectory> dataDirectories;
+    private final List<PESection> sections;
+    private final PEAuthenticodeInfo authenticodeInfo;
+    private final String jsonFilePath;
+    private final String artifactsFilePath;
+    private final byte[] report;
+    // Null when the artifacts file was already stored during the analysis
+    private final byte[] artifacts;
+    // Null in records journaled before artifact segments existed
+    private final String artifactSegmentsFilePath;
+    private final byte[] artifactSegments;
+
+    public PendingAnalysis(String sha1Hash, int analyzerVersion, PEFileInfo fileInfo, PEStaticInfo staticInfo,
+                           List<DataDirectory> dataDirectories, List<PESection> sections,
+                           PEAuthenticodeInfo authenticodeInfo, String jsonFilePath, String artifactsFilePath,
+                           byte[] report, byte[] artifacts, String artifactSegmentsFilePath,
+                           byte[] artifactSegments) {
+        this.sha1Hash = sha1Hash;
+        this.analyzerVersion = analyzerVersion;
+        this.fileInfo = fileInfo;
+        this.staticInfo = staticInfo;
+        this.dataDirectories = dataDirectories;
+        this.sections = sections;
+        this.authenticodeInfo = authenticodeInfo;
+        this.jsonFilePath = jsonFilePath;
+        this.artifactsFilePath = artifactsFilePath;
+        this.report = report;
+        this.artifacts = artifacts;
+        this.artifactSegmentsFilePath = artifactSegmentsFilePath;
+        this.artifactSegments = artifactSegments;
+    }
+
+    public String getSha1Hash() {
+        return sha1Hash;
+    }
+
+    public int getAnalyzerVersion() {
+        return analyzerVersion;
+    }
+
+    public PEFileInfo getFileInfo() {
+        return fileInfo;
+    }
+
+    public PEStaticInfo getStaticInfo() {
+        return staticInfo;
+    }
+
+    public List<DataDirectory> getDataDirectories() {
+        return dataDirectories;
+    }
+
+    public List<PESection> getSections() {
+        return sections;
+    }
+
+    public PEAuthenticodeInfo getAuthenticodeInfo() {
+        return authenticodeInfo;
+    }
+
+    public String getJsonFilePath() {
+        return jsonFilePath;
+    }
+
+    public String getArtifactsFilePath() {
+        return artifactsFilePath;
+    }
+
+    public byte[] getReport() {
+        return report;
+    }
+
+    public byte[] getArtifacts() {
+        return artifacts;
+    }
+
+    public String getArtifactSegmentsFilePath() {
+        return artifactSegmentsFilePath;
+    }
+
+    public byte[] getArtifactSegments() {
+        return artifactSegments;
+    }
+}
@@ -0,0 +1,91 @@
+package DAO;
+
+import Bean.FileRecord;
+import Bean.PendingAnalysis;
+import Utilities.DatabaseConnection;
+import Utilities.FileRecordCache;
+import Utilities.Sha1Filter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores complete analyses in one transaction on one pooled connection: the Files row
+ * (already carrying the report paths), PE_File_Info, the batched Data_Directories and
+ * Sections rows, Authenticode_Info and its certificate chain. A failure rolls everything
+ * back, so a broken analysis leaves no partial rows behind. A sample and analyzer version
+ * is stored at most once.
+ */
+public class AnalysisPersistence {
+
+    private final FileInfoDao fileInfoDao;
+    private final PEStaticInfoDao staticInfoDao = new PEStaticInfoDao();
+    private final DataDirectoriesDao dataDirectoriesDao = new DataDirectoriesDao();
+    private final PESectionDao sectionDao = new PESectionDao();
+    private final AuthenticodeInfoDao authenticodeInfoDao = new AuthenticodeInfoDao();
+
+    public AnalysisPersistence(FileInfoDao fileInfoDao) {
+        this.fileInfoDao = fileInfoDao;
+    }
+
+    /**
+     * @return the generated file_id
+     */
+    public int persist(PendingAnalysis analysis) throws SQLException {
+        return persistAll(Collections.singletonList(analysis))[0];
+    }
+
+    /**
+     * Stores several analyses in a single transaction, paying for one commit.
+     * @return the generated file_ids, in the order of the list
+     */
+    public int[] persistAll(List<PendingAnalysis> analyses) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                int[] fileIds = new int[analyses.size()];
+                for (int i = 0; i < fileIds.length; i++) {
+                    fileIds[i] = insert(conn, analyses.get(i));
+                }
+                conn.commit();
+                for (int i = 0; i < fileIds.length; i++) {
+                    PendingAnalysis analysis = analyses.get(i);
+                    FileRecordCache.put(new FileRecord(fileIds[i], analysis.getSha1Hash(),
+                            analysis.getFileInfo().getSha256Hash(), analysis.getAnalyzerVersion(),
+                            analysis.getJsonFilePath(), analysis.getArtifactsFilePath()));
+                    Sha1Filter.add(analysis.getSha1Hash(), analysis.getAnalyzerVersion());
+                }
+                if (Sha1Filter.needsRebuild()) {
+                    FileInfoDao.rebuildSha1FilterAsync();
+                }
+                return fileIds;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * An analysis that is already stored, e.g. one replayed from the journal after a
+     * restart and also analyzed again by a re-upload, keeps its rows; its file_id is returned.
+     */
+    private int insert(Connection conn, PendingAnalysis analysis) throws SQLException {
+        Integer existing = fileInfoDao.lockAndFindFileId(conn, analysis.getSha1Hash(), analysis.getAnalyzerVersion());
+        if (existing != null) {
+            return existing;
+        }
+        int fileId = fileInfoDao.insertFile(conn, analysis.getFileInfo(), analysis.getAnalyzerVersion(),
+                analysis.getJsonFilePath(), analysis.getArtifactsFilePath());
+        staticInfoDao.insertPEStaticInfo(conn, fileId, analysis.getStaticInfo());
+        dataDirectoriesDao.insertDataDirectories(conn, fileId, analysis.getDataDirectories());
+        sectionDao.insertSections(conn, fileId, analysis.getSections());
+        authenticodeInfoDao.insertAuthenticodeInfo(conn, fileId, analysis.getAuthenticodeInfo());
+        return fileId;
+    }
+}
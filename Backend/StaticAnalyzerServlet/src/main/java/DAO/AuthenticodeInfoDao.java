@@ -22,6 +22,15 @@ public class AuthenticodeInfoDao {
      * @throws SQLException
      */
     public int insertAuthenticodeInfo(int fileId, PEAuthenticodeInfo authInfo) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return insertAuthenticodeInfo(conn, fileId, authInfo);
+        }
+    }
+
+    /**
+     * Same as above on the caller's connection, so it can be part of a larger transaction.
+     */
+    public int insertAuthenticodeInfo(Connection conn, int fileId, PEAuthenticodeInfo authInfo) throws SQLException {
         String sql = "INSERT INTO Authenticode_Info (" +
                 "file_id, has_signature, is_valid, validation_error, " +
                 "sha1_thumbprint, sha256_thumbprint, certificate_version, " +
@@ -29,8 +38,7 @@ public class AuthenticodeInfoDao {
                 "subject_dn, public_key_algorithm) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             // Set basic fields
             stmt.setInt(1, fileId);
@@ -60,7 +68,7 @@ public class AuthenticodeInfoDao {
                 if (generatedKeys.next()) {
                     int authId = generatedKeys.getInt(1);
                     if (authInfo.getCertificateChain() != null && !authInfo.getCertificateChain().isEmpty()) {
-                        insertCertificateChain(authId, authInfo.getCertificateChain());
+                        insertCertificateChain(conn, authId, authInfo.getCertificateChain());
                     }
                     return authId;
                 } else {
@@ -90,7 +98,7 @@ public class AuthenticodeInfoDao {
     /**
      * Inserts the certificate chain into a separate table
      */
-    private void insertCertificateChain(int authId, List<X509Certificate> certificateChain)
+    private void insertCertificateChain(Connection conn, int authId, List<X509Certificate> certificateChain)
             throws SQLException {
         String sql = "INSERT INTO Certificate_Chain (" +
                 "auth_id, cert_order, subject_dn, issuer_dn, " +
@@ -98,8 +106,7 @@ public class AuthenticodeInfoDao {
                 "signature_algorithm, public_key_algorithm) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             int order = 0;
             for (X509Certificate cert : certificateChain) {
@@ -56,12 +56,20 @@ public class DataDirectoriesDao {
      * @throws SQLException
      */
     public int insertDataDirectories(int fileId, List<DataDirectory> directories) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return insertDataDirectories(conn, fileId, directories);
+        }
+    }
+
+    /**
+     * Same as above on the caller's connection, so it can be part of a larger transaction.
+     */
+    public int insertDataDirectories(Connection conn, int fileId, List<DataDirectory> directories) throws SQLException {
         String sql = "INSERT INTO Data_Directories (" +
                 "file_id, directory_index, name, virtual_address, size, section) " +
                 "VALUES (?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             for (DataDirectory directory : directories) {
                 stmt.setInt(1, fileId);
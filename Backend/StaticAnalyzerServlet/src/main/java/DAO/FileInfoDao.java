@@ -1,7 +1,10 @@
 package DAO;
 
+import Bean.FileRecord;
 import Bean.PEFileInfo;
 import Utilities.DatabaseConnection;
+import Utilities.FileRecordCache;
+import Utilities.Sha1Filter;
 import Utilities.Version;
 
 import java.sql.*;
@@ -11,20 +14,34 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FileInfoDao {
 
+    private static final AtomicBoolean filterRebuilding = new AtomicBoolean();
+
     private final int analyzerVersion = Version.getAnalyzerVersion();
 
 
 
     public int insertFile(PEFileInfo fileInfo) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return insertFile(conn, fileInfo, analyzerVersion, null, null);
+        }
+    }
+
+    /**
+     * Inserts the Files row on the caller's connection, with the report paths when they
+     * are already known, so a whole analysis can be stored in one transaction.
+     */
+    public int insertFile(Connection conn, PEFileInfo fileInfo, int analyzerVersion, String jsonFilePath,
+                          String artifactsFilePath) throws SQLException {
         String sql = "INSERT INTO Files (filename, file_size, file_type, entropy, " +
-                "md5_hash, sha1_hash, sha256_hash, sha512_hash, content_preview, analyzer_version) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                "md5_hash, sha1_hash, sha256_hash, sha512_hash, content_preview, analyzer_version, " +
+                "json_file_path, artifacts_file_path) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             stmt.setString(1, fileInfo.getFileName());
             stmt.setLong(2, fileInfo.getFileSize());
@@ -36,6 +53,8 @@ public class FileInfoDao {
             stmt.setString(8, fileInfo.getSha512Hash());
             stmt.setString(9, fileInfo.getContentPreview());
             stmt.setInt(10, analyzerVersion);
+            stmt.setString(11, jsonFilePath);
+            stmt.setString(12, artifactsFilePath);
 
             int affectedRows = stmt.executeUpdate();
 
@@ -53,6 +72,26 @@ public class FileInfoDao {
         }
     }
 
+    /**
+     * The file_id already stored for the sample and analyzer version, on the caller's
+     * connection, or null. Takes a transaction-scoped lock on the pair first, so concurrent
+     * transactions storing the same analysis see each other's rows.
+     */
+    public Integer lockAndFindFileId(Connection conn, String sha1Hash, int analyzerVersion) throws SQLException {
+        try (PreparedStatement lock = conn.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+            lock.setString(1, sha1Hash + 'v' + analyzerVersion);
+            lock.execute();
+        }
+        String sql = "SELECT file_id FROM files WHERE sha1_hash = ? and analyzer_version = ? ORDER BY file_id LIMIT 1";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, sha1Hash);
+            stmt.setInt(2, analyzerVersion);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("file_id") : null;
+            }
+        }
+    }
+
     public int getAnalyzerVersion(String SHA_1) throws SQLException{
         String sql = "SELECT analyzer_version FROM files WHERE sha1_hash = ?";
         try(Connection conn = DatabaseConnection.getConnection();
@@ -66,46 +105,119 @@ public class FileInfoDao {
         return -1;
     }
 
-    public boolean isSha1Present(String SHA_1,int version) throws SQLException{
-        String sql = "SELECT sha1_hash FROM files WHERE sha1_hash = ? and analyzer_version = ?";
-        try(Connection conn = DatabaseConnection.getConnection();
-        PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1,SHA_1);
-            stmt.setInt(2,version);
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                return true;
-            }
+    /**
+     * Files row of the analysis of the SHA1 at the given version, or null if there is none
+     * or its report is not saved yet. Served from FileRecordCache when possible; hashes that
+     * Sha1Filter has never seen return null without a query; anything else is one indexed query.
+     */
+    public FileRecord getFileRecord(String sha1Hash, int analyzerVersion) throws SQLException {
+        FileRecord cached = FileRecordCache.get(sha1Hash, analyzerVersion);
+        if (cached != null) {
+            return cached;
+        }
+        if (!Sha1Filter.mightContain(sha1Hash, analyzerVersion)) {
+            return null;
         }
-        return false;
-    }
 
-    public String getJsonFilePath(String sha1Hash,int analyzerVersion) throws SQLException {
-        String sql = "SELECT json_file_path FROM files WHERE sha1_hash = ? and analyzer_version = ?";
+        String sql = "SELECT file_id, sha256_hash, json_file_path, artifacts_file_path FROM files " +
+                "WHERE sha1_hash = ? and analyzer_version = ? ORDER BY file_id LIMIT 1";
         try(Connection conn = DatabaseConnection.getConnection();
         PreparedStatement stmt = conn.prepareStatement(sql)){
             stmt.setString(1,sha1Hash);
             stmt.setInt(2,analyzerVersion);
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getString("json_file_path");
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                FileRecord record = new FileRecord(resultSet.getInt("file_id"), sha1Hash,
+                        resultSet.getString("sha256_hash"), analyzerVersion,
+                        resultSet.getString("json_file_path"), resultSet.getString("artifacts_file_path"));
+                if (record.getJsonFilePath() == null) {
+                    return null;
+                }
+                FileRecordCache.put(record);
+                return record;
             }
         }
-        return null;
+    }
+
+    public boolean isSha1Present(String SHA_1,int version) throws SQLException{
+        return getFileRecord(SHA_1, version) != null;
+    }
+
+    public String getJsonFilePath(String sha1Hash,int analyzerVersion) throws SQLException {
+        FileRecord record = getFileRecord(sha1Hash, analyzerVersion);
+        return record == null ? null : record.getJsonFilePath();
     }
 
     public String getArtifactsFilePath(String sha1Hash,int analyzerVersion) throws SQLException {
-        String sql = "SELECT artifacts_file_path FROM files WHERE sha1_hash = ?  and analyzer_version = ?";
-        try(Connection conn = DatabaseConnection.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql)){
-            stmt.setString(1,sha1Hash);
-            stmt.setInt(2,analyzerVersion);
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getString("artifacts_file_path");
+        FileRecord record = getFileRecord(sha1Hash, analyzerVersion);
+        return record == null ? null : record.getArtifactsFilePath();
+    }
+
+    /**
+     * Reloads Sha1Filter from every (sha1, version) pair in Files, streaming the rows
+     * through a cursor. Lookups keep using the old filter until the new one is complete.
+     */
+    public void rebuildSha1Filter() throws Exception {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            long rowCount;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet resultSet = stmt.executeQuery("SELECT count(*) FROM files")) {
+                resultSet.next();
+                rowCount = resultSet.getLong(1);
+            }
+
+            boolean autoCommit = conn.getAutoCommit();
+            // The driver only streams with a fetch size inside a transaction
+            conn.setAutoCommit(false);
+            try {
+                Sha1Filter.rebuild(rowCount, sink -> {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.setFetchSize(10_000);
+                        try (ResultSet resultSet = stmt.executeQuery("SELECT sha1_hash, analyzer_version FROM files")) {
+                            while (resultSet.next()) {
+                                sink.accept(resultSet.getString(1), resultSet.getInt(2));
+                            }
+                        }
+                    }
+                });
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(autoCommit);
             }
         }
-        return null;
+    }
+
+    /**
+     * Rebuilds Sha1Filter on a background thread unless a rebuild is already running.
+     */
+    public static void rebuildSha1FilterAsync() {
+        if (!filterRebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                new FileInfoDao().rebuildSha1Filter();
+            } catch (Exception e) {
+                System.err.println("Could not rebuild the SHA1 filter: " + e.getMessage());
+            } finally {
+                filterRebuilding.set(false);
+            }
+        }, "sha1-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates the index behind the SHA1 lookups if the schema does not have it yet.
+     */
+    public void ensureIndexes() throws SQLException {
+        String sql = "CREATE INDEX IF NOT EXISTS files_sha1_version_idx ON files (sha1_hash, analyzer_version)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
     }
 
     public int getFileId(String sha1Hash) throws SQLException {
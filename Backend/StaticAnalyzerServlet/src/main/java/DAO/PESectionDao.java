@@ -60,13 +60,21 @@ public class PESectionDao {
      * @throws SQLException
      */
     public int insertSections(int fileId, List<PESection> sections) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return insertSections(conn, fileId, sections);
+        }
+    }
+
+    /**
+     * Same as above on the caller's connection, so it can be part of a larger transaction.
+     */
+    public int insertSections(Connection conn, int fileId, List<PESection> sections) throws SQLException {
         String sql = "INSERT INTO Sections (" +
                 "file_id, name, virtual_size, virtual_address, " +
                 "raw_size, raw_offset, characteristics, md5, entropy, type) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             for (PESection section : sections) {
                 stmt.setInt(1, fileId);
@@ -10,6 +10,15 @@ public class PEStaticInfoDao {
 
 
     public int insertPEStaticInfo(int fileId, PEStaticInfo peFileInfo) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return insertPEStaticInfo(conn, fileId, peFileInfo);
+        }
+    }
+
+    /**
+     * Same as above on the caller's connection, so it can be part of a larger transaction.
+     */
+    public int insertPEStaticInfo(Connection conn, int fileId, PEStaticInfo peFileInfo) throws SQLException {
         String sql = "INSERT INTO PE_File_Info (" +
                 "file_id, entry_point, entry_point_section, digitally_signed, " +
                 "image_base, subsystem, image_characteristics, dll_characteristics, " +
@@ -19,8 +28,7 @@ public class PEStaticInfoDao {
                 "xorkey, import_hash) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             // Set parameters
             stmt.setInt(1, fileId);
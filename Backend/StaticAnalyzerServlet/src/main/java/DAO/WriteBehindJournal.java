@@ -0,0 +1,473 @@
+package DAO;
+
+import Bean.PendingAnalysis;
+import Utilities.DatabaseConnection;
+import Utilities.ReportStore;
+import Utilities.ReusableBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable write-behind queue for finished analyses. {@link #append} writes the analysis to
+ * an append-only journal on local disk and forces it before returning, so the HTTP response
+ * no longer waits for Postgres or for the report files. A background flusher takes the
+ * queued analyses in batches, writes their report and artifacts files and stores all of
+ * their rows in one transaction, then releases the journal space.
+ *
+ * The journal is a series of segment files (journal-N.log) of records
+ * [int length][int crc32][serialized PendingAnalysis]. A segment is deleted once every
+ * analysis in it is stored; at startup the remaining segments are replayed, skipping
+ * analyses that already reached the database and stopping at a torn tail record.
+ *
+ * Tuned with -Danalysis.journal.dir, -Danalysis.journal.batch (default 32),
+ * -Danalysis.journal.lingerMs (default 200) and -Danalysis.journal.segmentBytes (default 64 MB).
+ */
+public class WriteBehindJournal {
+
+    private static final Path JOURNAL_DIR = Paths.get(System.getProperty("analysis.journal.dir",
+            "C:\\Users\\yaswant-pt7919\\Malware Analysis\\Journal"));
+    private static final int BATCH_SIZE = Integer.getInteger("analysis.journal.batch", 32);
+    private static final int LINGER_MS = Integer.getInteger("analysis.journal.lingerMs", 200);
+    private static final long SEGMENT_BYTES = Long.getLong("analysis.journal.segmentBytes", 64L * 1024 * 1024);
+    private static final long MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int HEADER_SIZE = 8;
+
+    private static final WriteBehindJournal instance = new WriteBehindJournal(JOURNAL_DIR);
+
+    private final Logger logger = Logger.getLogger(WriteBehindJournal.class.getName());
+    private final Path directory;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final AnalysisPersistence persistence = new AnalysisPersistence(new FileInfoDao());
+
+    // Guarded by this
+    private Segment current;
+    private long nextSequence;
+    private boolean started;
+    private Thread flusher;
+    private volatile boolean running;
+
+    private WriteBehindJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    public static WriteBehindJournal getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replays the segments left by the previous run and starts the flusher.
+     * Appending also starts the journal, so calling this is only needed for the replay
+     * to happen at deployment rather than on the first analysis.
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        Files.createDirectories(directory);
+
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring("journal-".length(), name.length() - 4)), path);
+                } catch (NumberFormatException e) {
+                    logger.warning("Ignoring unexpected journal file " + path);
+                }
+            }
+        }
+        for (Path path : segments.values()) {
+            replay(path);
+        }
+        nextSequence = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        current = openSegment();
+
+        running = true;
+        flusher = new Thread(this::flushLoop, "write-behind-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        started = true;
+    }
+
+    /**
+     * Makes the analysis durable in the journal and queues it for storage.
+     * @return completes with the generated file_id once the rows are committed
+     */
+    public CompletableFuture<Integer> append(PendingAnalysis analysis) throws IOException {
+        // Serialize behind a reserved header in this thread's buffer and write it from there
+        ReusableBuffer buffer = ReusableBuffer.acquire();
+        Entry entry;
+        try {
+            buffer.write(new byte[HEADER_SIZE]);
+            serialize(analysis, buffer);
+            int length = buffer.size() - HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), HEADER_SIZE, length);
+            buffer.putInt(0, length);
+            buffer.putInt(4, (int) crc.getValue());
+            entry = write(analysis, ByteBuffer.wrap(buffer.array(), 0, buffer.size()));
+        } finally {
+            buffer.release();
+        }
+        queue.add(entry);
+        return entry.stored;
+    }
+
+    private synchronized Entry write(PendingAnalysis analysis, ByteBuffer record) throws IOException {
+        if (!started) {
+            start();
+        }
+        if (current.channel.size() >= SEGMENT_BYTES) {
+            Segment full = current;
+            current = openSegment();
+            releaseIfDone(full);
+        }
+        while (record.hasRemaining()) {
+            current.channel.write(record);
+        }
+        current.channel.force(false);
+        current.outstanding++;
+        return new Entry(analysis, current);
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Gives the flusher a bounded time to drain the queue, then stops it. Whatever is
+     * left stays in the journal and is replayed on the next start.
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            thread = flusher;
+        }
+        if (thread == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeQuietly(current);
+        }
+    }
+
+    private void flushLoop() {
+        long backoff = 0;
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (running) {
+            try {
+                if (batch.isEmpty()) {
+                    Entry first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    // Linger briefly so a burst of analyses shares one transaction
+                    long lingerEnd = System.currentTimeMillis() + LINGER_MS;
+                    while (batch.size() < BATCH_SIZE) {
+                        long wait = lingerEnd - System.currentTimeMillis();
+                        Entry next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+
+                batch = flush(batch);
+                if (batch.isEmpty()) {
+                    backoff = 0;
+                } else {
+                    backoff = Math.min(MAX_BACKOFF_MS, backoff == 0 ? 500 : backoff * 2);
+                    logger.warning("Write-behind flush failed, retrying " + batch.size()
+                            + " analyses in " + backoff + " ms");
+                    Thread.sleep(backoff);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the batch; when the batch transaction fails the analyses are retried one by
+     * one so a single bad analysis cannot hold back the others. An analysis that keeps
+     * failing while the database is reachable is moved aside to a failed-*.rec file.
+     * @return the analyses to retry later, empty when the whole batch is done
+     */
+    private List<Entry> flush(List<Entry> batch) {
+        List<Entry> failed = new ArrayList<>();
+        Exception lastFailure;
+        try {
+            store(batch);
+            return failed;
+        } catch (IOException | SQLException | RuntimeException e) {
+            lastFailure = e;
+            logger.log(Level.WARNING, "Storing " + batch.size() + " analyses failed", e);
+        }
+
+        if (batch.size() == 1) {
+            failed.add(batch.get(0));
+        } else {
+            for (Entry entry : batch) {
+                try {
+                    store(List.of(entry));
+                } catch (IOException | SQLException | RuntimeException e) {
+                    failed.add(entry);
+                    lastFailure = e;
+                }
+            }
+        }
+
+        // Unless some analyses went through or the database answers, this is an outage
+        if (failed.size() == batch.size() && !databaseReachable()) {
+            return failed;
+        }
+        List<Entry> retry = new ArrayList<>();
+        for (Entry entry : failed) {
+            if (++entry.attempts >= MAX_ATTEMPTS) {
+                deadLetter(entry, lastFailure);
+            } else {
+                retry.add(entry);
+            }
+        }
+        return retry;
+    }
+
+    private boolean databaseReachable() {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return conn.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void store(List<Entry> entries) throws IOException, SQLException {
+        for (Entry entry : entries) {
+            writeFile(Paths.get(entry.analysis.getJsonFilePath()), entry.analysis.getReport());
+            if (entry.analysis.getArtifacts() != null) {
+                writeFile(Paths.get(entry.analysis.getArtifactsFilePath()), entry.analysis.getArtifacts());
+            }
+            if (entry.analysis.getArtifactSegments() != null) {
+                writeFile(Paths.get(entry.analysis.getArtifactSegmentsFilePath()),
+                        entry.analysis.getArtifactSegments());
+            }
+        }
+        List<PendingAnalysis> analyses = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            analyses.add(entry.analysis);
+        }
+        int[] fileIds = persistence.persistAll(analyses);
+        for (int i = 0; i < fileIds.length; i++) {
+            Entry entry = entries.get(i);
+            release(entry);
+            entry.stored.complete(fileIds[i]);
+        }
+    }
+
+    private void writeFile(Path path, byte[] content) throws IOException {
+        ReportStore.writeAtomically(path, content);
+    }
+
+    private void deadLetter(Entry entry, Exception failure) {
+        Path target = directory.resolve("failed-" + entry.analysis.getSha1Hash() + "-"
+                + System.currentTimeMillis() + ".rec");
+        try {
+            try (OutputStream output = Files.newOutputStream(target)) {
+                serialize(entry.analysis, output);
+            }
+            logger.log(Level.SEVERE, "Giving up on analysis " + entry.analysis.getSha1Hash()
+                    + ", kept in " + target, failure);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Giving up on analysis " + entry.analysis.getSha1Hash()
+                    + " and could not keep it", e);
+        }
+        release(entry);
+        entry.stored.completeExceptionally(failure);
+    }
+
+    private void replay(Path path) throws IOException {
+        Segment segment = new Segment(path, null);
+        FileInfoDao fileInfoDao = new FileInfoDao();
+        int replayed = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (true) {
+                header.clear();
+                if (!readFully(channel, header)) {
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                int expectedCrc = header.getInt();
+                if (length <= 0 || length > channel.size() - channel.position()) {
+                    logger.warning("Torn record at the end of " + path + ", ignoring the rest");
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(channel, payload)) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warning("Corrupt record in " + path + ", ignoring the rest");
+                    break;
+                }
+
+                PendingAnalysis analysis = deserialize(payload.array());
+                if (analysis == null || isStored(fileInfoDao, analysis)) {
+                    continue;
+                }
+                segment.outstanding++;
+                queue.add(new Entry(analysis, segment));
+                replayed++;
+            }
+        }
+        if (replayed > 0) {
+            logger.info("Replaying " + replayed + " analyses from " + path);
+        }
+        releaseIfDone(segment);
+    }
+
+    private boolean isStored(FileInfoDao fileInfoDao, PendingAnalysis analysis) {
+        try {
+            return fileInfoDao.getJsonFilePath(analysis.getSha1Hash(), analysis.getAnalyzerVersion()) != null;
+        } catch (SQLException e) {
+            // Database not reachable yet; the flusher will retry the insert
+            return false;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized Segment openSegment() throws IOException {
+        Path path = directory.resolve("journal-" + (nextSequence++) + ".log");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        return new Segment(path, channel);
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.segment.outstanding--;
+        releaseIfDone(entry.segment);
+    }
+
+    /**
+     * Deletes a segment once everything in it is stored. The active segment is only
+     * truncated, and only when the queue is empty, so nothing written to it is lost.
+     */
+    private synchronized void releaseIfDone(Segment segment) {
+        if (segment.outstanding > 0) {
+            return;
+        }
+        try {
+            if (segment == current) {
+                if (queue.isEmpty() && segment.channel.size() > 0) {
+                    segment.channel.truncate(0);
+                }
+            } else {
+                closeQuietly(segment);
+                Files.deleteIfExists(segment.path);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not release journal segment " + segment.path, e);
+        }
+    }
+
+    private void closeQuietly(Segment segment) {
+        if (segment != null && segment.channel != null) {
+            try {
+                segment.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void serialize(PendingAnalysis analysis, OutputStream target) throws IOException {
+        ObjectOutputStream output = new ObjectOutputStream(target);
+        output.writeObject(analysis);
+        output.flush();
+    }
+
+    private PendingAnalysis deserialize(byte[] payload) {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (PendingAnalysis) input.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.log(Level.WARNING, "Skipping unreadable journal record", e);
+            return null;
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private int outstanding;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Entry {
+        private final PendingAnalysis analysis;
+        private final Segment segment;
+        private final CompletableFuture<Integer> stored = new CompletableFuture<>();
+        private int attempts;
+
+        private Entry(PendingAnalysis analysis, Segment segment) {
+            this.analysis = analysis;
+            this.segment = segment;
+        }
+    }
+}
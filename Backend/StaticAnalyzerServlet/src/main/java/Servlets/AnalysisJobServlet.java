@@ -0,0 +1,45 @@
+package Servlets;
+
+import Bean.AnalysisJob;
+import Utilities.AnalysisJobs;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Status of the background analyses: GET /analyze/jobs/{jobId}.
+ * Once the job is done the report is fetched as usual with POST /analyze {"sha1", "version"}.
+ */
+@WebServlet("/analyze/jobs/*")
+public class AnalysisJobServlet extends HttpServlet {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        String pathInfo = request.getPathInfo();
+        String jobId = pathInfo == null ? "" : pathInfo.replaceFirst("^/", "");
+        if (jobId.isEmpty()) {
+            sendError(response, "Missing job id", HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        AnalysisJob job = AnalysisJobs.get(jobId);
+        if (job == null) {
+            sendError(response, "Unknown or expired job: " + jobId, HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(response.getWriter(), job);
+    }
+
+    private void sendError(HttpServletResponse response, String message, int statusCode) throws IOException {
+        response.setStatus(statusCode);
+        response.getWriter().println(mapper.writeValueAsString(Map.of("error", message)));
+    }
+}
@@ -0,0 +1,57 @@
+package Servlets;
+
+import Analyzers.InterestingKeywords;
+import DAO.FileInfoDao;
+import DAO.WriteBehindJournal;
+import Utilities.AnalysisExecutor;
+import Utilities.AnalysisJobs;
+import Utilities.DatabaseConnection;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts and stops the application-wide resources of the analyzer together with the webapp.
+ */
+@WebListener
+public class AnalyzerLifecycleListener implements ServletContextListener {
+    private final Logger logger = Logger.getLogger(AnalyzerLifecycleListener.class.getName());
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        try {
+            new FileInfoDao().ensureIndexes();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Could not create the Files indexes", e);
+        }
+        // Lookups query the database for every hash until the filter is loaded
+        FileInfoDao.rebuildSha1FilterAsync();
+
+        // A broken keyword file shows up in the startup log rather than in the first analysis
+        logger.info("Loaded " + InterestingKeywords.get().size() + " interesting-string keywords");
+
+        // Replay analyses that were journaled but not yet stored when the webapp last stopped
+        try {
+            WriteBehindJournal.getInstance().start();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not open the write-behind journal", e);
+        }
+        logger.info("Static analyzer started");
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        // Let queued background jobs drain before the stage pool they depend on goes away
+        AnalysisJobs.shutdown();
+        AnalysisExecutor.getExecutor().shutdown();
+        AnalysisExecutor.getExtractionPool().shutdown();
+        WriteBehindJournal.getInstance().shutdown();
+        DatabaseConnection.shutdown();
+        logger.info("Static analyzer stopped");
+    }
+}
@@ -1,7 +1,16 @@
 package Servlets;
 
+import Analyzers.AnalysisPipeline;
 import DAO.FileInfoDao;
-import Utilities.JsonCache;
+import Bean.FileRecord;
+import Utilities.AnalysisExecutor;
+import Utilities.ArtifactSegments;
+import Utilities.RegexLiterals;
+import Utilities.ReportCodec;
+import Utilities.ReportStore;
+import Utilities.ResultCache;
+import Utilities.StringIndex;
+import Utilities.Version;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -16,9 +25,13 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,8 +39,9 @@ import java.util.regex.PatternSyntaxException;
 @WebServlet("/analyze/artifacts")
 public class ArtifactsServlet extends HttpServlet {
     private static final ObjectMapper mapper = new ObjectMapper();
+    // How long a request waits for an analysis of the same sample that is still running
+    private static final long ANALYSIS_WAIT_SECONDS = Long.getLong("artifacts.analysisWaitSeconds", 30);
     private final Logger logger = Logger.getLogger(ArtifactsServlet.class.getName());
-    private int version = 0;
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         response.setContentType("application/json");
@@ -37,42 +51,129 @@ public class ArtifactsServlet extends HttpServlet {
             String sha1 = request.getParameter("sha1");
             boolean forceLatin1 = Boolean.parseBoolean(request.getParameter("forceLatin1"));
             String pattern = request.getParameter("pattern");
-            this.version = Integer.parseInt(request.getParameter("version"));
+            int version = Integer.parseInt(request.getParameter("version"));
 
             if (sha1 == null || sha1.isEmpty()) {
                 sendError(response, "Missing required parameter: sha1", HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
-            JsonNode rootNode=null;
-            if(JsonCache.contains(sha1+'v'+version) ) {
+            boolean regexSearch = pattern != null && !pattern.isEmpty();
+            if (!regexSearch && !forceLatin1) {
+                // Pages are read from the artifact segments, without the whole artifacts document
+                ArtifactSegments segments = ResultCache.getArtifactSegments(sha1+'v'+version);
+                if (segments == null) {
+                    FileRecord record = findRecord(sha1, version);
+                    if (record == null) {
+                        sendError(response, "File not found", HttpServletResponse.SC_NOT_FOUND);
+                        return;
+                    }
+                    segments = openSegments(sha1, version, record);
+                }
+                handleArtifactRequest(response, segments, request);
+                return;
+            }
+
+            Pattern compiledPattern = regexSearch && !forceLatin1 ? compileOrNull(pattern) : null;
+            RegexLiterals literals = compiledPattern == null ? null : RegexLiterals.of(compiledPattern);
+            if (literals != null && literals.isLineLocal()) {
+                // Searched line by line in the string index, without the artifacts document
+                StringIndex index = ResultCache.getStringIndex(sha1+'v'+version);
+                if (index == null) {
+                    FileRecord record = findRecord(sha1, version);
+                    if (record == null) {
+                        sendError(response, "File not found", HttpServletResponse.SC_NOT_FOUND);
+                        return;
+                    }
+                    index = openStringIndex(sha1, version, record);
+                }
+                if (index != null) {
+                    handleIndexedRegexSearch(response, index, compiledPattern, literals, request);
+                    return;
+                }
+            }
+
+            JsonNode rootNode = ResultCache.getArtifacts(sha1+'v'+version);
+            if(rootNode != null) {
                 logger.info("Response from Cache");
-                rootNode = JsonCache.get(sha1+'v'+version);
             }
             else {
                 logger.info("Response from Json File");
-                FileInfoDao fileInfoDao = new FileInfoDao();
-                String filePath = fileInfoDao.getArtifactsFilePath(sha1,version);
-                if (filePath == null) {
+                FileRecord record = findRecord(sha1, version);
+                if (record == null) {
                     sendError(response, "File not found", HttpServletResponse.SC_NOT_FOUND);
                     return;
                 }
 
-                rootNode = readJsonFile(sha1, filePath, forceLatin1);
+                rootNode = readJsonFile(sha1, version, record.getArtifactsFilePath(), forceLatin1);
             }
 
-            if (pattern != null && !pattern.isEmpty()) {
+            if (regexSearch) {
                 handleRegexSearch(response, rootNode, request);
             } else {
-                handleArtifactRequest(response, rootNode, request);
+                handleArtifactRequest(response, ArtifactSegments.of(
+                        ArtifactSegments.encode(ArtifactSegments.fromTree(rootNode.get("artifacts")))), request);
             }
 
+        } catch (TimeoutException e) {
+            sendError(response, "Analysis is still running, retry later", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         } catch (Exception e) {
             sendError(response, "Server error: " + e.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
 
-    private void handleArtifactRequest(HttpServletResponse response, JsonNode rootNode, HttpServletRequest request)
-            throws IOException {
+    /**
+     * The sample's Files row. While the analysis is still running or waiting in the
+     * write-behind journal, a record for its artifacts file on disk, which has no file id yet.
+     * @throws TimeoutException when the running analysis does not finish in time
+     */
+    private FileRecord findRecord(String sha1, int version) throws Exception {
+        FileRecord record = new FileInfoDao().getFileRecord(sha1,version);
+        CompletableFuture<AnalysisPipeline.Report> running =
+                version == Version.getAnalyzerVersion() ? AnalysisPipeline.inFlight(sha1) : null;
+        if (record == null && running != null) {
+            AnalysisPipeline.Report report = AnalysisExecutor.await(running, ANALYSIS_WAIT_SECONDS, TimeUnit.SECONDS);
+            Integer fileId = report.getFileId();
+            record = new FileRecord(fileId == null ? 0 : fileId, sha1, report.getSha256Hash(), version,
+                    null, report.getArtifactsFilePath());
+        }
+        return record;
+    }
+
+    /**
+     * Opens the sample's artifact segments, building them from the artifacts file the first
+     * time for analyses stored before segments existed.
+     */
+    private ArtifactSegments openSegments(String sha1, int version, FileRecord record) throws IOException {
+        Path segmentsPath = ReportStore.artifactSegmentsPath(record.getSha256Hash(), version);
+        if (!Files.isRegularFile(segmentsPath)) {
+            logger.info("Building artifact segments for SHA1: " + sha1);
+            JsonNode rootNode = mapper.readTree(ReportCodec.read(Paths.get(record.getArtifactsFilePath())));
+            ReportStore.writeAtomically(segmentsPath,
+                    ArtifactSegments.encode(ArtifactSegments.fromTree(rootNode.get("artifacts"))));
+        }
+        ArtifactSegments segments = ArtifactSegments.open(segmentsPath);
+        ResultCache.putArtifactSegments(sha1+'v'+version, segments);
+        return segments;
+    }
+
+    /**
+     * Opens the sample's string index, building it from the artifacts file the first time for
+     * analyses stored before the index existed. Null when the file has no extracted strings.
+     */
+    private StringIndex openStringIndex(String sha1, int version, FileRecord record) throws IOException {
+        Path indexPath = ReportStore.stringIndexPath(record.getSha256Hash(), version);
+        if (!Files.isRegularFile(indexPath)) {
+            logger.info("Building string index for SHA1: " + sha1);
+        }
+        StringIndex index = StringIndex.open(indexPath, Paths.get(record.getArtifactsFilePath()));
+        if (index != null) {
+            ResultCache.putStringIndex(sha1+'v'+version, index);
+        }
+        return index;
+    }
+
+    private void handleArtifactRequest(HttpServletResponse response, ArtifactSegments segments,
+                                       HttpServletRequest request) throws IOException {
 
         int page = parseIntOrDefault(request.getParameter("page"), 1);
         int limit = parseIntOrDefault(request.getParameter("limit"), 10);
@@ -104,13 +205,13 @@ public class ArtifactsServlet extends HttpServlet {
         // Only send available sections/types on initial request
         if (initialRequest) {
             ArrayNode sectionsArray = responseNode.putArray("availableSections");
-            rootNode.get("artifacts").fieldNames().forEachRemaining(sectionsArray::add);
+            segments.getSectionNames().forEach(sectionsArray::add);
         }
 
         // Filter by section
 
-        JsonNode sectionNode = section.equals("allSections") ? rootNode.get("artifacts") :
-                mapper.createObjectNode().set(section, rootNode.get("artifacts").get(section));
+        List<String> sectionNames = section.equals("allSections") ? segments.getSectionNames() :
+                Collections.singletonList(section);
 
         ObjectNode artifactsBlock = mapper.createObjectNode();
         ObjectNode artifactsSections = mapper.createObjectNode();
@@ -118,29 +219,20 @@ public class ArtifactsServlet extends HttpServlet {
         int totalItems = 0;
 
         // Process each section
-        Iterator<String> sectionNames = sectionNode.fieldNames();
         ObjectNode sectionBlock =mapper.createObjectNode();
-        while (sectionNames.hasNext()) {
-
-            String sectionName = sectionNames.next();
-            JsonNode artifactsNode = sectionNode.get(sectionName).get(0);
+        for (String sectionName : sectionNames) {
 
             // Only send available types on initial request
             if (initialRequest) {
                 ObjectNode artifactsResponse = responseNode.putObject("artifacts");
                 ObjectNode sectionResponse = artifactsResponse.putObject(sectionName);
                 ArrayNode availableTypes = sectionResponse.putArray("availableTypes");
-                artifactsNode.fieldNames().forEachRemaining(availableTypes::add);
+                segments.getTypeNames(sectionName).forEach(availableTypes::add);
                 continue;
             }
 
             // Process each artifact type
-            Iterator<String> artifactNames = artifactsNode.fieldNames();
-
-
-
-            while (artifactNames.hasNext()) {
-                String artifactName = artifactNames.next();
+            for (String artifactName : segments.getTypeNames(sectionName)) {
 
                 // Skip if we're targeting a specific artifact type and this isn't it
                 if (targetArtifactType != null && !targetArtifactType.equals(artifactName)) {
@@ -152,22 +244,21 @@ public class ArtifactsServlet extends HttpServlet {
                     continue;
                 }
 
-                JsonNode itemsNode = artifactsNode.get(artifactName);
-                if (!itemsNode.isArray()) continue;
+                int itemCount = segments.getCount(sectionName, artifactName);
 
 //                ObjectNode sectionResponse = artifactsResponse.putObject(sectionName);
                 ArrayNode paginatedItems = mapper.createArrayNode();
 
                 // Apply search filter if needed
-                List<JsonNode> filteredItems = new ArrayList<>();
+                List<String> filteredItems = new ArrayList<>();
                 // Apply pagination
-                int startIndex = Math.min(offset, itemsNode.size());
-                int endIndex = Math.min(offset + limit, itemsNode.size());
-                int count =0;
+                int startIndex = Math.min(offset, itemCount);
+                int endIndex = Math.min(offset + limit, itemCount);
                 if (searchTerm != null && !searchTerm.isEmpty()) {
-                    for (JsonNode itemNode : itemsNode) {
-                        if (itemNode.asText().toLowerCase().contains(searchTerm.toLowerCase())) {
-                            filteredItems.add(itemNode);
+                    // A search has to look at every item of the type, but still only this type's
+                    for (String item : segments.read(sectionName, artifactName, 0, itemCount)) {
+                        if (item.toLowerCase().contains(searchTerm.toLowerCase())) {
+                            filteredItems.add(item);
                         }
                     }
                     totalItems = filteredItems.size();
@@ -177,10 +268,8 @@ public class ArtifactsServlet extends HttpServlet {
                         paginatedItems.add(filteredItems.get(i));
                     }
                 } else {
-                    for (int i = startIndex; i <endIndex ; i++) {
-                        paginatedItems.add(itemsNode.get(i));
-                    }
-                    totalItems = itemsNode.size();
+                    segments.read(sectionName, artifactName, startIndex, endIndex).forEach(paginatedItems::add);
+                    totalItems = itemCount;
                 }
 
 
@@ -238,6 +327,38 @@ public class ArtifactsServlet extends HttpServlet {
             }
         }
 
+        sendMatches(response, allMatches, page, limit);
+    }
+
+    /**
+     * Same search as handleRegexSearch for a line-local pattern: it cannot match a line break
+     * or use an anchor, so running it line by line finds the same matches in the same order,
+     * and only the lines the index leaves in can hold one.
+     */
+    private void handleIndexedRegexSearch(HttpServletResponse response, StringIndex index, Pattern compiledPattern,
+                                          RegexLiterals literals, HttpServletRequest request) throws IOException {
+        int page = parseIntOrDefault(request.getParameter("page"), 1);
+        int limit = parseIntOrDefault(request.getParameter("limit"), 10);
+        String searchTerm = request.getParameter("searchTerm");
+
+        int[] candidates = index.candidates(literals.getRequired());
+        int lineCount = candidates == null ? index.getLineCount() : candidates.length;
+        List<String> allMatches = new ArrayList<>();
+        for (int i = 0; i < lineCount; i++) {
+            Matcher matcher = compiledPattern.matcher(index.getLine(candidates == null ? i : candidates[i]));
+            while (matcher.find()) {
+                String match = matcher.group();
+                if (searchTerm == null || searchTerm.isEmpty() || match.toLowerCase().contains(searchTerm.toLowerCase())) {
+                    allMatches.add(match);
+                }
+            }
+        }
+
+        sendMatches(response, allMatches, page, limit);
+    }
+
+    private void sendMatches(HttpServletResponse response, List<String> allMatches, int page, int limit)
+            throws IOException {
         int totalItems = allMatches.size();
         int totalPages = (int) Math.ceil((double) totalItems / limit);
         int fromIndex = (page - 1) * limit;
@@ -256,6 +377,14 @@ public class ArtifactsServlet extends HttpServlet {
         mapper.writeValue(response.getWriter(), responseNode);
     }
 
+    private static Pattern compileOrNull(String pattern) {
+        try {
+            return Pattern.compile(pattern);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
     private int parseIntOrDefault(String value, int defaultValue) {
         try {
             return Integer.parseInt(value);
@@ -264,13 +393,16 @@ public class ArtifactsServlet extends HttpServlet {
         }
     }
 
-    private JsonNode readJsonFile(String sha1, String filePath, boolean forceLatin1) throws IOException {
-        if (!forceLatin1 && JsonCache.contains(sha1+'v'+version)) {
-            System.out.println("From Cache");
-            return JsonCache.get(sha1+'v'+version);
+    private JsonNode readJsonFile(String sha1, int version, String filePath, boolean forceLatin1) throws IOException {
+        if (!forceLatin1) {
+            JsonNode cached = ResultCache.getArtifacts(sha1+'v'+version);
+            if (cached != null) {
+                System.out.println("From Cache");
+                return cached;
+            }
         }
 
-        byte[] fileBytes = Files.readAllBytes(Paths.get(filePath));
+        byte[] fileBytes = ReportCodec.read(Paths.get(filePath));
         JsonNode rootNode;
 
         if (forceLatin1) {
@@ -284,7 +416,7 @@ public class ArtifactsServlet extends HttpServlet {
         }
 
         if (!forceLatin1) {
-            JsonCache.put(sha1+'v'+version, rootNode);
+            ResultCache.putArtifacts(sha1+'v'+version, rootNode, fileBytes.length);
         }
 
         return rootNode;
@@ -296,4 +428,4 @@ public class ArtifactsServlet extends HttpServlet {
         errorNode.put("error", message);
         mapper.writeValue(response.getWriter(), errorNode);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package Servlets;
+
+import Utilities.ResultCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Hit, miss and eviction counters of the report and artifacts caches.
+ */
+@WebServlet("/cache/stats")
+public class CacheStatsServlet extends HttpServlet {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(response.getWriter(), ResultCache.getStats());
+    }
+}
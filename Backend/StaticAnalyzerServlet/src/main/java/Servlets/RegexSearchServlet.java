@@ -1,6 +1,12 @@
 package Servlets;
 
+import Bean.FileRecord;
 import DAO.FileInfoDao;
+import Utilities.RegexLiterals;
+import Utilities.ReportStore;
+import Utilities.ResultCache;
+import Utilities.StringIndex;
+import Utilities.Version;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -12,7 +18,6 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,6 +50,7 @@ public class RegexSearchServlet extends HttpServlet {
             JsonNode jsonNode = mapper.readTree(requestBody.toString());
             String regexPattern = jsonNode.get("pattern").asText();
             String sha1 = jsonNode.get("sha1").asText();
+            int version = jsonNode.has("version") ? jsonNode.get("version").asInt() : Version.getAnalyzerVersion();
 
             // Validate inputs
             if (regexPattern == null || regexPattern.trim().isEmpty()) {
@@ -59,32 +65,32 @@ public class RegexSearchServlet extends HttpServlet {
                 return;
             }
 
-            // Get file data
-            FileInfoDao fileInfoDao = new FileInfoDao();
-            String filePath = fileInfoDao.getJsonFilePath(sha1);
+            // Extracted strings are searched in the string index kept next to the artifacts file
+            StringIndex index = ResultCache.getStringIndex(sha1 + 'v' + version);
+            if (index == null) {
+                FileInfoDao fileInfoDao = new FileInfoDao();
+                FileRecord record = fileInfoDao.getFileRecord(sha1, version);
 
-            if (filePath == null) {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.println(mapper.writeValueAsString(Map.of("error", "File not found for the provided SHA1")));
-                return;
-            }
-
-            // Read and parse JSON file
-            String jsonString = new String(Files.readAllBytes(Paths.get(filePath)));
-            JsonNode node = mapper.readTree(jsonString);
+                if (record == null) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    out.println(mapper.writeValueAsString(Map.of("error", "File not found for the provided SHA1")));
+                    return;
+                }
 
-            if (!node.has("extractedStrings")) {
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                out.println(mapper.writeValueAsString(Map.of("error", "Invalid file format - missing allStrings field")));
-                return;
+                index = StringIndex.open(ReportStore.stringIndexPath(record.getSha256Hash(), version),
+                        Paths.get(record.getArtifactsFilePath()));
+                if (index == null) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    out.println(mapper.writeValueAsString(Map.of("error", "Invalid file format - missing allStrings field")));
+                    return;
+                }
+                ResultCache.putStringIndex(sha1 + 'v' + version, index);
             }
 
-            String allStrings = node.get("extractedStrings").asText();
-
             // Perform regex search
             List<String> matches;
             try {
-                matches = customRegexSearch(regexPattern, allStrings);
+                matches = customRegexSearch(regexPattern, index);
             } catch (Exception e) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.println(mapper.writeValueAsString(Map.of("error", "Invalid regex pattern: " + e.getMessage())));
@@ -105,15 +111,17 @@ public class RegexSearchServlet extends HttpServlet {
         }
     }
 
-    private List<String> customRegexSearch(String regex, String allStrings) throws Exception {
+    private List<String> customRegexSearch(String regex, StringIndex index) throws Exception {
         List<String> matches = new ArrayList<>();
 
         // Compile pattern with case-insensitive flag as an example
         Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
 
-        // Split by line and search
-        String[] lines = allStrings.split("\\r?\\n");
-        for (String line : lines) {
+        // Search line by line, only in the lines holding the literals every match needs
+        int[] candidates = index.candidates(RegexLiterals.of(pattern).getRequired());
+        int lineCount = candidates == null ? searchedLineCount(index) : candidates.length;
+        for (int i = 0; i < lineCount; i++) {
+            String line = index.getLine(candidates == null ? i : candidates[i]);
             Matcher matcher = pattern.matcher(line);
             while (matcher.find()) {
                 matches.add(matcher.group());
@@ -122,4 +130,16 @@ public class RegexSearchServlet extends HttpServlet {
 
         return matches;
     }
-}
\ No newline at end of file
+
+    /**
+     * Lines as splitting the text at line breaks gives them: trailing empty lines are dropped,
+     * except for an empty text, which is one empty line.
+     */
+    private static int searchedLineCount(StringIndex index) {
+        int lineCount = index.getLineCount();
+        while (lineCount > 0 && index.getLine(lineCount - 1).isEmpty()) {
+            lineCount--;
+        }
+        return lineCount == 0 && index.getLineCount() == 1 ? 1 : lineCount;
+    }
+}
@@ -2,10 +2,15 @@ package Servlets;
 
 import Analyzers.*;
 import DAO.*;
-import Utilities.JsonCache;
+import Utilities.MultiDigest;
+import Utilities.ReportCodec;
+import Utilities.ResponseBytes;
+import Utilities.ResultCache;
+import Utilities.Sha1Filter;
 import Utilities.Utils;
 import Utilities.Version;
-import Utilities.AnalysisCache;
+import Utilities.AnalysisExecutor;
+import Utilities.AnalysisJobs;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import Bean.*;
@@ -13,8 +18,9 @@ import Bean.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 import javax.servlet.*;
 import javax.servlet.annotation.*;
@@ -28,15 +34,15 @@ import javax.servlet.http.*;
 )
 public class StaticAnalyzerServlet extends HttpServlet {
     private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String ANALYSIS_RESULTS_PATH = "C:\\Users\\yaswant-pt7919\\Malware Analysis\\Analysis Results";
-    private static final String ARTIFACTS_PATH = "C:\\Users\\yaswant-pt7919\\Malware Analysis\\Artifacts";
-    private static int fileId;
     private final Logger logger = Logger.getLogger(StaticAnalyzerServlet.class.getName());
     private int analyzerVersion = Version.getAnalyzerVersion();
 
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
-        PrintWriter out = response.getWriter();
+        response.setCharacterEncoding("UTF-8");
+        // Reports are copied to the stream as cached bytes; errors and job notices go through the writer
+        OutputStream responseStream = response.getOutputStream();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(responseStream, StandardCharsets.UTF_8));
         FileInfoDao fileInfoDao = new FileInfoDao();
 
         try {
@@ -52,33 +58,44 @@ public class StaticAnalyzerServlet extends HttpServlet {
 
                 // Check cache first
 
-                if (AnalysisCache.contains(sha1+'v'+version) ) {
-                        objectMapper.writeValue(out, AnalysisCache.get(sha1+'v'+version));
+                ResponseBytes cachedReport = ResultCache.getReport(sha1+'v'+version);
+                if (cachedReport != null) {
+                        cachedReport.writeTo(request, response, responseStream);
                         logger.info("Serving from LRI cache for SHA1: " + sha1);
                         return;
                 }
 
-                //Check sha1 in db
-                if (!fileInfoDao.isSha1Present(sha1,version)) {
-                    logger.info("No Sha found in DB");
+                // Still being analyzed or waiting in the write-behind journal
+                CompletableFuture<AnalysisPipeline.Report> running =
+                        version == analyzerVersion ? AnalysisPipeline.inFlight(sha1) : null;
+                if (running != null) {
+                    logger.info("Serving running analysis for SHA1: " + sha1);
+                    AnalysisExecutor.await(running).getBody().writeTo(request, response, responseStream);
+                    return;
+                }
+
+                // Definite misses need no database lookup
+                if (!Sha1Filter.mightContain(sha1, version)) {
                     sendError(response, out, "No analysis found for the provided SHA1 hash", HttpServletResponse.SC_NOT_FOUND);
                     return;
                 }
-                //Get the Analysis Report File Path from db
-                String filePath = fileInfoDao.getJsonFilePath(sha1,version);
-                if (filePath == null || filePath.isEmpty()) {
-                    sendError(response, out, "Analysis data not found", HttpServletResponse.SC_NOT_FOUND);
+
+                //Check sha1 in db and get the Analysis Report File Path in one lookup
+                FileRecord record = fileInfoDao.getFileRecord(sha1,version);
+                if (record == null) {
+                    logger.info("No Sha found in DB");
+                    sendError(response, out, "No analysis found for the provided SHA1 hash", HttpServletResponse.SC_NOT_FOUND);
                     return;
                 }
+                String filePath = record.getJsonFilePath();
 
-                String jsonContent = new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8);
-                JsonNode resultNode = objectMapper.readTree(jsonContent);
+                ResponseBytes report = ReportCodec.readResponse(Paths.get(filePath));
 
                 // Add to cache
-                AnalysisCache.put(sha1+'v'+resultNode.get("analyzerVersion"), resultNode);
+                ResultCache.putReport(sha1+'v'+version, report);
                 logger.info("Serving from DB for SHA1: " + sha1);
 
-                out.println(jsonContent);
+                report.writeTo(request, response, responseStream);
             } else {
                 Part filePart = request.getPart("exeFile");
                 if (filePart == null) {
@@ -86,147 +103,139 @@ public class StaticAnalyzerServlet extends HttpServlet {
                     return;
                 }
 
+                boolean async = Boolean.parseBoolean(request.getParameter("async"));
                 Path tempFile = Files.createTempFile("upload-", ".tmp");
+                boolean handedOff = false;
                 try {
+                    // Hash the upload while it is copied, so the bytes are digested only once
+                    MultiDigest multiDigest = new MultiDigest(MultiDigest.FILE_ALGORITHMS);
                     try (InputStream input = filePart.getInputStream();
                          OutputStream output = Files.newOutputStream(tempFile)) {
-                        input.transferTo(output);
+                        multiDigest.copy(input, output);
                     }
+                    Map<String, String> hashes = multiDigest.hexDigests();
 
-                    byte[] fileBytes = Files.readAllBytes(tempFile);
                     String fileName = filePart.getSubmittedFileName();
-                    String sha1Hash = Utils.calculateHash(fileBytes, "SHA1");
+                    String sha1Hash = hashes.get(MultiDigest.SHA1);
 
                     // Check cache for existing analysis
-                    if (AnalysisCache.contains(sha1Hash+'v'+analyzerVersion) ) {
-                        objectMapper.writeValue(out, AnalysisCache.get(sha1Hash+'v'+analyzerVersion));
+                    ResponseBytes cachedReport = ResultCache.getReport(sha1Hash+'v'+analyzerVersion);
+                    if (cachedReport != null) {
                         logger.info("Serving from LRI cache for SHA1: " + sha1Hash);
+                        if (async) {
+                            sendJob(response, out, completedJob(sha1Hash, fileName));
+                            return;
+                        }
+                        cachedReport.writeTo(request, response, responseStream);
                         return;
                     }
 
-                    // Check sha1 in db
-                    if (fileInfoDao.isSha1Present(sha1Hash,analyzerVersion) ) {
+                    // Join an analysis of the same sample that is already running
+                    CompletableFuture<AnalysisPipeline.Report> running = AnalysisPipeline.inFlight(sha1Hash);
+                    if (running != null) {
+                        logger.info("Joining running analysis for SHA1: " + sha1Hash);
+                        if (async) {
+                            AnalysisJob job = new AnalysisJob(AnalysisJobs.newJobId(), sha1Hash, fileName,
+                                    analyzerVersion, Collections.emptyList());
+                            // Done once the rows are committed, failed if they are dead-lettered
+                            AnalysisJobs.follow(job, running.thenCompose(AnalysisPipeline.Report::getStored));
+                            sendJob(response, out, job);
+                            return;
+                        }
+                        AnalysisExecutor.await(running).getBody().writeTo(request, response, responseStream);
+                        return;
+                    }
 
-                        String existingPath = fileInfoDao.getJsonFilePath(sha1Hash,analyzerVersion);
-                        String jsonContent = new String(Files.readAllBytes(Paths.get(existingPath)), StandardCharsets.UTF_8);
-                        JsonNode resultNode = objectMapper.readTree(jsonContent);
+                    // Check sha1 in db; a report file whose rows were never stored does not count
+                    String recordedPath = fileInfoDao.getJsonFilePath(sha1Hash,analyzerVersion);
+                    Path existingPath = recordedPath == null ? null : Paths.get(recordedPath);
+                    if (existingPath != null) {
+                        if (async) {
+                            logger.info("Already analyzed, SHA1: " + sha1Hash);
+                            sendJob(response, out, completedJob(sha1Hash, fileName));
+                            return;
+                        }
+
+                        ResponseBytes report = ReportCodec.readResponse(existingPath);
 
                         // Add to cache
-                        AnalysisCache.put(sha1Hash+'v'+resultNode.get("analyzerVersion"), resultNode);
-                        logger.info("Serving from DB for SHA1: " + sha1Hash);
-                        out.println(jsonContent);
+                        ResultCache.putReport(sha1Hash+'v'+analyzerVersion, report);
+                        logger.info("Serving stored report for SHA1: " + sha1Hash);
+                        report.writeTo(request, response, responseStream);
                         return;
                     }
 
-                    // Perform analysis
-                    Map<String, Object> analysisResults = performAnalysis(fileBytes, fileName, fileInfoDao);
-                    String jsonResponse = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(analysisResults);
-                    JsonNode resultNode = objectMapper.readTree(jsonResponse);
-
-                    // Add to cache
-                    AnalysisCache.put(sha1Hash+'v'+Version.getAnalyzerVersion(), resultNode);
+                    if (async) {
+                        // The worker owns the temp file from here on
+                        AnalysisJob job = new AnalysisJob(AnalysisJobs.newJobId(), sha1Hash, fileName,
+                                analyzerVersion, AnalysisPipeline.stageNames());
+                        try {
+                            AnalysisJobs.submit(job, () -> {
+                                try {
+                                    PEImage image = PEImage.parse(Utils.mapReadOnly(tempFile));
+                                    AnalysisPipeline.Report report = new AnalysisPipeline(new FileInfoDao(),
+                                            job::updateStage).run(image, fileName, hashes);
+                                    // The job is done when the rows are in the database, not when queued
+                                    return AnalysisExecutor.await(report.getStored());
+                                } finally {
+                                    Utils.deleteTempFile(tempFile);
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            sendError(response, out, "Analysis queue is full, retry later",
+                                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                            return;
+                        }
+                        handedOff = true;
+                        logger.info("Queued analysis job " + job.getJobId() + " for SHA1: " + sha1Hash);
+                        sendJob(response, out, job);
+                        return;
+                    }
 
-                    // Save results to filesystem
-                    saveResults(analysisResults, fileName ,fileBytes, fileInfoDao,sha1Hash);
+                    // Perform analysis on a mapping of the temp file instead of a heap copy
+                    PEImage image = PEImage.parse(Utils.mapReadOnly(tempFile));
+                    AnalysisPipeline.Report report = new AnalysisPipeline(fileInfoDao, AnalysisPipeline.StageListener.NONE)
+                            .run(image, fileName, hashes);
 
-                    out.println(jsonResponse);
+                    report.getBody().writeTo(request, response, responseStream);
                 } catch (Exception ex) {
                     throw new RuntimeException(ex);
                 }
                 finally {
                     filePart.delete();
-                    Files.deleteIfExists(tempFile);
+                    if (!handedOff) {
+                        Utils.deleteTempFile(tempFile);
+                    }
                 }
             }
         } catch (Exception e) {
             sendError(response, out, "Analysis failed: " + e.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             e.printStackTrace();
 
+        } finally {
+            out.flush();
         }
     }
 
 
-    private Map<String, Object> performAnalysis(byte[] fileBytes, String fileName,
-                                                 FileInfoDao fileInfoDao) throws Exception {
-        Map<String, Object> results = new LinkedHashMap<>();
-        results.put("filename", fileName);
-        results.put("analyzerVersion", Version.getAnalyzerVersion());
-
-        // General File analysis
-        PEFileAnalyzer fileAnalyzer = new PEFileAnalyzer(fileBytes, fileName);
-        PEFileInfo fileInfo = fileAnalyzer.getPEFileInfo();
-        this.fileId= fileInfoDao.insertFile(fileInfo);
-        results.put("pe_fileinfo", fileInfo);
-
-        // PE Static Analysis
-        PEStaticInfo peStaticInfo = new PEInfoParser().getPEInfo(fileBytes);
-        results.put("static_info", peStaticInfo);
-        new PEStaticInfoDao().insertPEStaticInfo(fileId, peStaticInfo);
-
-        // Data Directories
-        List<DataDirectory> dataDirectories = new PEDataDirectoryAnalyzer(fileBytes).getDirectories();
-        results.put("data_directories", dataDirectories);
-        new DataDirectoriesDao().insertDataDirectories(fileId, dataDirectories);
-
-        // Imports/Exports
-        results.put("imports", new PEImportsParser().parse(fileBytes));
-        results.put("exports", new PEExportsParser().parse(fileBytes));
-
-        // Sections
-        List<PESection> sections = new PESectionAnalyzer(fileBytes).getSections();
-        results.put("sections", sections);
-        new PESectionDao().insertSections(fileId, sections);
-
-        // Resources
-        results.put("resources", new PEResourceAnalyzer(fileBytes).getResources());
-
-        // Authenticode
-        PEAuthenticodeVerifier authenticodeVerifier = new PEAuthenticodeVerifier();
-        authenticodeVerifier.analyze(fileBytes);
-        results.put("authenticode_info", authenticodeVerifier.getPeAuthenticodeInfo());
-        new AuthenticodeInfoDao().insertAuthenticodeInfo(fileId, authenticodeVerifier.getPeAuthenticodeInfo());
-
-        return results;
+    private AnalysisJob completedJob(String sha1Hash, String fileName) {
+        AnalysisJob job = new AnalysisJob(AnalysisJobs.newJobId(), sha1Hash, fileName,
+                analyzerVersion, Collections.emptyList());
+        job.complete(null);
+        AnalysisJobs.register(job);
+        return job;
     }
 
-    private void saveResults(Map<String, Object> analysisResults,String fileName,
-                             byte[] fileBytes, FileInfoDao fileInfoDao, String sha1Hash) throws IOException, SQLException {
-        String baseName =fileName.replace(".exe", "");
-        int analyzerVersion = Version.getAnalyzerVersion();
-
-        // Save main analysis
-
-        //Create file if that file does not exist and save the results
-        Path analysisDir = Paths.get(ANALYSIS_RESULTS_PATH);
-        if (!Files.exists(analysisDir)) Files.createDirectories(analysisDir);
-        Path analysisFile = analysisDir.resolve(baseName + "_v" + analyzerVersion + ".json");
-        Files.write(analysisFile, objectMapper.writerWithDefaultPrettyPrinter()
-                .writeValueAsString(analysisResults).getBytes());
-
-        // Save artifacts
-        Map<String, Object> artifacts = new LinkedHashMap<>();
-        artifacts.put("analyzerVersion", analyzerVersion);
-        //All artifacts
-        PEArtifactExtractor artifactExtractor = new PEArtifactExtractor(fileBytes);
-        artifacts.put("artifacts", artifactExtractor.getStructuredArtifacts());
-        //All Extracted strings from exe file
-        ExtractStrings extractStrings = new ExtractStrings(fileBytes);
-        artifacts.put("extractedStrings", extractStrings.extractAllStrings());
-        String artifactsResponse = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(analysisResults);
-        JsonNode resultNode = objectMapper.readTree(artifactsResponse);
-
-        //Add to cache
-//        JsonCache.put(sha1Hash,resultNode);
-
-        //Save as File
-        Path artifactsDir = Paths.get(ARTIFACTS_PATH);
-        if (!Files.exists(artifactsDir)) Files.createDirectories(artifactsDir);
-        Path artifactsFile = artifactsDir.resolve(baseName + "_v" + analyzerVersion + "_Artifacts.json");
-        Files.write(artifactsFile, objectMapper.writerWithDefaultPrettyPrinter()
-                .writeValueAsString(artifacts).getBytes());
-
-        //Updating file paths to db
-        fileInfoDao.updatePaths(fileId, analysisFile.toString(), artifactsFile.toString());
+    private void sendJob(HttpServletResponse response, PrintWriter out, AnalysisJob job) throws IOException {
+        response.setStatus(job.getStatus() == AnalysisJob.Status.DONE
+                ? HttpServletResponse.SC_OK : HttpServletResponse.SC_ACCEPTED);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("jobId", job.getJobId());
+        body.put("sha1", job.getSha1());
+        body.put("analyzerVersion", job.getAnalyzerVersion());
+        body.put("status", job.getStatus());
+        body.put("statusUrl", "analyze/jobs/" + job.getJobId());
+        out.println(objectMapper.writeValueAsString(body));
     }
 
     private void sendError(HttpServletResponse response, PrintWriter out, String message, int statusCode) {
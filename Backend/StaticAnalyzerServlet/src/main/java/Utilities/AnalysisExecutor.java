@@ -0,0 +1,114 @@
+package Utilities;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool that runs the independent analysis stages of a sample in parallel.
+ * Size with -Danalysis.threads and -Danalysis.queue; when the queue is full the
+ * submitting thread runs the stage itself instead of failing the request. Once the pool is
+ * shut down stages are rejected, so their futures fail instead of never completing.
+ */
+public class AnalysisExecutor {
+
+    private static final int POOL_SIZE = Integer.getInteger("analysis.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_CAPACITY = Integer.getInteger("analysis.queue", 256);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            r -> {
+                Thread thread = new Thread(r, "analysis-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            AnalysisExecutor::runInCaller);
+
+    // Splits the string and artifact work of one stage across cores, see -Danalysis.extractThreads
+    private static final AtomicInteger extractThreadCount = new AtomicInteger();
+    private static final ForkJoinPool extractionPool = new ForkJoinPool(
+            Integer.getInteger("analysis.extractThreads", Runtime.getRuntime().availableProcessors()),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("extract-" + extractThreadCount.incrementAndGet());
+                return thread;
+            },
+            null, false);
+
+    private AnalysisExecutor() {}
+
+    private static void runInCaller(Runnable task, ThreadPoolExecutor pool) {
+        if (pool.isShutdown()) {
+            throw new RejectedExecutionException("Analysis pool is shut down");
+        }
+        task.run();
+    }
+
+    /**
+     * Runs the stage on the analysis pool. Checked exceptions complete the future
+     * exceptionally and are rethrown by {@link #await(CompletableFuture)}.
+     */
+    public static <T> CompletableFuture<T> stage(Callable<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Waits for the future and rethrows the failure of the stage that broke it.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #await(CompletableFuture)}, giving up after the timeout. The future itself
+     * is left running for its other waiters.
+     */
+    public static <T> T await(CompletableFuture<T> future, long timeout, TimeUnit unit) throws Exception {
+        try {
+            return future.get(timeout, unit);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    public static ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public static ForkJoinPool getExtractionPool() {
+        return extractionPool;
+    }
+}
@@ -0,0 +1,130 @@
+package Utilities;
+
+import Bean.AnalysisJob;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry and worker pool of the background analyses started by POST /analyze?async=true.
+ * The pool is deliberately small (-Danalysis.jobs.threads, default 2) and its queue bounded
+ * (-Danalysis.jobs.queue, default 64): a full queue rejects the upload instead of piling up
+ * temp files. Jobs stay visible for -Danalysis.jobs.ttlMinutes (default 60) after their last update.
+ */
+public class AnalysisJobs {
+
+    private static final int WORKERS = Integer.getInteger("analysis.jobs.threads", 2);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("analysis.jobs.queue", 64);
+    private static final int TTL_MINUTES = Integer.getInteger("analysis.jobs.ttlMinutes", 60);
+
+    private static final Cache<String, AnalysisJob> jobs = Caffeine.newBuilder()
+            .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            r -> {
+                Thread thread = new Thread(r, "analysis-job-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+    private AnalysisJobs() {}
+
+    public static String newJobId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Registers the job and queues its work. The work reports its own progress on the job;
+     * the registry only marks it running and stores the final state.
+     * @throws RejectedExecutionException if the worker queue is full
+     */
+    public static void submit(AnalysisJob job, JobWork work) {
+        jobs.put(job.getJobId(), job);
+        try {
+            workers.execute(() -> {
+                job.start();
+                jobs.put(job.getJobId(), job);
+                try {
+                    job.complete(work.run());
+                } catch (Exception | Error e) {
+                    job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                    e.printStackTrace();
+                } finally {
+                    jobs.put(job.getJobId(), job);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            jobs.invalidate(job.getJobId());
+            throw e;
+        }
+    }
+
+    /**
+     * Registers a job that mirrors an analysis already running for another upload,
+     * so a duplicate submission takes no worker.
+     */
+    public static void follow(AnalysisJob job, CompletableFuture<Integer> fileId) {
+        job.start();
+        jobs.put(job.getJobId(), job);
+        fileId.whenComplete((id, failure) -> {
+            if (failure == null) {
+                job.complete(id);
+            } else {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                job.fail(cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName());
+            }
+            jobs.put(job.getJobId(), job);
+        });
+    }
+
+    /**
+     * Records a job that needed no work, e.g. an upload that was already analyzed.
+     */
+    public static void register(AnalysisJob job) {
+        jobs.put(job.getJobId(), job);
+    }
+
+    public static AnalysisJob get(String jobId) {
+        return jobs.getIfPresent(jobId);
+    }
+
+    public static int getQueuedCount() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Stops taking jobs and gives the running ones a moment to finish.
+     */
+    public static void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Background analysis of one job, returning the generated file id.
+     */
+    public interface JobWork {
+        Integer run() throws Exception;
+    }
+}
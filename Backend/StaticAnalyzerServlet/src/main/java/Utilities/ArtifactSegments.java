@@ -0,0 +1,275 @@
+package Utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Artifacts of one sample split per section and artifact type, so a page of "urls" in
+ * ".rdata" is read with two positional reads instead of loading the whole artifacts
+ * document. Written next to the artifacts file by the write-behind flusher, or built from
+ * an older artifacts file on its first request.
+ *
+ * Layout: [int MAGIC][long index offset], then one block per (section, type), then the
+ * index. A block holds an int offset table with one entry per item plus an end entry
+ * (fixed 4-byte stride, relative to the first item) followed by the items as UTF-8.
+ * The index lists the sections in order and, per section, each type's name, item count
+ * and block offset.
+ */
+public class ArtifactSegments {
+
+    private static final int MAGIC = 0x41534731; // "ASG1"
+    private static final int HEADER_SIZE = 12;
+
+    // The segments file, or the encoded bytes for segments built in memory
+    private final Path path;
+    private final byte[] encoded;
+    // Section -> type -> block
+    private final Map<String, Map<String, Block>> sections;
+    private final int indexBytes;
+
+    private ArtifactSegments(Path path, byte[] encoded, Map<String, Map<String, Block>> sections, int indexBytes) {
+        this.path = path;
+        this.encoded = encoded;
+        this.sections = sections;
+        this.indexBytes = indexBytes;
+    }
+
+    /**
+     * Encodes section -> type -> items.
+     */
+    public static byte[] encode(Map<String, Map<String, List<String>>> artifacts) throws IOException {
+        ReusableBuffer buffer = ReusableBuffer.acquire();
+        try {
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(MAGIC);
+            output.writeLong(0);
+            Map<String, Map<String, Block>> index = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, List<String>>> section : artifacts.entrySet()) {
+                Map<String, Block> blocks = new LinkedHashMap<>();
+                for (Map.Entry<String, List<String>> type : section.getValue().entrySet()) {
+                    List<String> items = type.getValue();
+                    blocks.put(type.getKey(), new Block(buffer.size(), items.size()));
+                    List<byte[]> encoded = new ArrayList<>(items.size());
+                    int end = 0;
+                    output.writeInt(end);
+                    for (String item : items) {
+                        byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+                        encoded.add(bytes);
+                        end += bytes.length;
+                        output.writeInt(end);
+                    }
+                    for (byte[] bytes : encoded) {
+                        output.write(bytes);
+                    }
+                }
+                index.put(section.getKey(), blocks);
+            }
+
+            long indexOffset = buffer.size();
+            output.writeInt(index.size());
+            for (Map.Entry<String, Map<String, Block>> section : index.entrySet()) {
+                output.writeUTF(section.getKey());
+                output.writeInt(section.getValue().size());
+                for (Map.Entry<String, Block> type : section.getValue().entrySet()) {
+                    output.writeUTF(type.getKey());
+                    output.writeInt(type.getValue().count);
+                    output.writeLong(type.getValue().offset);
+                }
+            }
+            output.flush();
+            byte[] encoded = buffer.toByteArray();
+            ByteBuffer.wrap(encoded).putLong(4, indexOffset);
+            return encoded;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Converts the structured artifacts of PEArtifactExtractor, section -> [type -> items].
+     */
+    public static Map<String, Map<String, List<String>>> fromStructured(
+            Map<String, List<Map<String, List<String>>>> structured) {
+        Map<String, Map<String, List<String>>> artifacts = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Map<String, List<String>>>> section : structured.entrySet()) {
+            Map<String, List<String>> types = new LinkedHashMap<>();
+            for (Map<String, List<String>> part : section.getValue()) {
+                types.putAll(part);
+            }
+            artifacts.put(section.getKey(), types);
+        }
+        return artifacts;
+    }
+
+    /**
+     * Converts the "artifacts" node of a parsed artifacts file, which has the same shape.
+     */
+    public static Map<String, Map<String, List<String>>> fromTree(JsonNode artifactsNode) {
+        Map<String, Map<String, List<String>>> artifacts = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> sectionNodes = artifactsNode.fields();
+        while (sectionNodes.hasNext()) {
+            Map.Entry<String, JsonNode> section = sectionNodes.next();
+            Map<String, List<String>> types = new LinkedHashMap<>();
+            for (JsonNode part : section.getValue()) {
+                Iterator<Map.Entry<String, JsonNode>> typeNodes = part.fields();
+                while (typeNodes.hasNext()) {
+                    Map.Entry<String, JsonNode> type = typeNodes.next();
+                    List<String> items = new ArrayList<>(type.getValue().size());
+                    type.getValue().forEach(item -> items.add(item.asText()));
+                    types.put(type.getKey(), items);
+                }
+            }
+            artifacts.put(section.getKey(), types);
+        }
+        return artifacts;
+    }
+
+    /**
+     * Reads the index of a segments file; items are read on demand.
+     */
+    public static ArtifactSegments open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an artifact segments file: " + path);
+            }
+            long indexOffset = header.getLong();
+            ByteBuffer index = readFully(channel, indexOffset, (int) (channel.size() - indexOffset));
+            return new ArtifactSegments(path, null, readIndex(index.array(), 0, index.limit()), index.limit());
+        }
+    }
+
+    /**
+     * Wraps encoded segments held in memory, for documents that are not stored as segments.
+     */
+    public static ArtifactSegments of(byte[] encoded) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(encoded);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not encoded artifact segments");
+        }
+        int indexOffset = (int) header.getLong();
+        return new ArtifactSegments(null, encoded, readIndex(encoded, indexOffset, encoded.length - indexOffset),
+                encoded.length);
+    }
+
+    private static Map<String, Map<String, Block>> readIndex(byte[] index, int offset, int length)
+            throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(index, offset, length));
+        Map<String, Map<String, Block>> sections = new LinkedHashMap<>();
+        int sectionCount = input.readInt();
+        for (int i = 0; i < sectionCount; i++) {
+            String section = input.readUTF();
+            int typeCount = input.readInt();
+            Map<String, Block> blocks = new LinkedHashMap<>();
+            for (int j = 0; j < typeCount; j++) {
+                String type = input.readUTF();
+                int count = input.readInt();
+                blocks.put(type, new Block(input.readLong(), count));
+            }
+            sections.put(section, blocks);
+        }
+        return sections;
+    }
+
+    public List<String> getSectionNames() {
+        return new ArrayList<>(sections.keySet());
+    }
+
+    public List<String> getTypeNames(String section) {
+        Map<String, Block> blocks = sections.get(section);
+        return blocks == null ? Collections.emptyList() : new ArrayList<>(blocks.keySet());
+    }
+
+    public int getCount(String section, String type) {
+        Block block = block(section, type);
+        return block == null ? 0 : block.count;
+    }
+
+    /**
+     * Size of what this holds in memory, for cache weighing.
+     */
+    public int getIndexBytes() {
+        return indexBytes;
+    }
+
+    /**
+     * Items [from, to) of one type; reads only their offsets and bytes.
+     */
+    public List<String> read(String section, String type, int from, int to) throws IOException {
+        Block block = block(section, type);
+        if (block == null) {
+            return Collections.emptyList();
+        }
+        from = Math.max(0, Math.min(from, block.count));
+        to = Math.max(from, Math.min(to, block.count));
+        List<String> items = new ArrayList<>(to - from);
+        if (from == to) {
+            return items;
+        }
+        FileChannel channel = path == null ? null : FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer offsets = read(channel, block.offset + 4L * from, 4 * (to - from + 1));
+            long itemsStart = block.offset + 4L * (block.count + 1);
+            int first = offsets.getInt(offsets.position());
+            int last = offsets.getInt(offsets.position() + 4 * (to - from));
+            ByteBuffer data = read(channel, itemsStart + first, last - first);
+            for (int i = 0; i < to - from; i++) {
+                int start = offsets.getInt(offsets.position() + 4 * i) - first;
+                int end = offsets.getInt(offsets.position() + 4 * (i + 1)) - first;
+                items.add(new String(data.array(), data.position() + start, end - start, StandardCharsets.UTF_8));
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return items;
+    }
+
+    private Block block(String section, String type) {
+        Map<String, Block> blocks = sections.get(section);
+        return blocks == null ? null : blocks.get(type);
+    }
+
+    private ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        return channel == null
+                ? ByteBuffer.wrap(encoded, (int) position, length)
+                : readFully(channel, position, length);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated artifact segments file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class Block {
+        private final long offset;
+        private final int count;
+
+        private Block(long offset, int count) {
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+}
@@ -1,30 +1,76 @@
 package Utilities;
 
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Pooled access to the report database. Connections come from a HikariCP pool that
+ * validates them before handing them out and keeps idle ones alive; closing a
+ * connection returns it to the pool. The PostgreSQL driver prepares statements on the
+ * server from their first execution and caches them per connection, so the lookup
+ * queries are parsed once per pooled connection rather than once per call.
+ *
+ * Tuned with -Ddb.pool.size (default 10), -Ddb.pool.minIdle (default 2),
+ * -Ddb.pool.timeoutMs (default 10000) and -Ddb.prepareThreshold (default 1).
+ */
 public class DatabaseConnection {
 
-    private static final String URL = "jdbc:postgresql://localhost:5432/pereportdb";
-    private static final String USER = "postgres";
-    private static final String PASSWORD = "Yaswanth@123";
+    private static final String URL = System.getProperty("db.url", "jdbc:postgresql://localhost:5432/pereportdb");
+    private static final String USER = System.getProperty("db.user", "postgres");
+    private static final String PASSWORD = System.getProperty("db.password", "Yaswanth@123");
     private static final String DRIVER = "org.postgresql.Driver";
 
-    static {
-        try {
-            Class.forName(DRIVER);
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to load DB driver.");
-        }
-    }
+    private static final HikariDataSource dataSource = createDataSource();
 
     private DatabaseConnection() {}
 
+    private static HikariDataSource createDataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("pereportdb");
+        config.setDriverClassName(DRIVER);
+        config.setJdbcUrl(URL);
+        config.setUsername(USER);
+        config.setPassword(PASSWORD);
+
+        config.setMaximumPoolSize(Integer.getInteger("db.pool.size", 10));
+        config.setMinimumIdle(Integer.getInteger("db.pool.minIdle", 2));
+        config.setConnectionTimeout(Integer.getInteger("db.pool.timeoutMs", 10000));
+        // Health checks: JDBC4 isValid() on borrow, keepalive pings for idle connections,
+        // and recycling well before typical server or firewall idle limits
+        config.setValidationTimeout(TimeUnit.SECONDS.toMillis(3));
+        config.setKeepaliveTime(TimeUnit.MINUTES.toMillis(5));
+        config.setIdleTimeout(TimeUnit.MINUTES.toMillis(10));
+        config.setMaxLifetime(TimeUnit.MINUTES.toMillis(30));
+        // Do not fail the webapp deployment when the database is not up yet
+        config.setInitializationFailTimeout(-1);
+
+        // Server-side prepared statements, cached per connection by the driver
+        config.addDataSourceProperty("prepareThreshold", Integer.getInteger("db.prepareThreshold", 1));
+        config.addDataSourceProperty("preparedStatementCacheQueries", 256);
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB", 5);
+        // Send a JDBC batch of inserts as multi-row INSERT statements
+        config.addDataSourceProperty("reWriteBatchedInserts", true);
+        return new HikariDataSource(config);
+    }
+
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return dataSource.getConnection();
+    }
+
+    public static DataSource getDataSource() {
+        return dataSource;
     }
-}
 
+    /**
+     * Closes the pool and its connections; called when the webapp stops.
+     */
+    public static void shutdown() {
+        dataSource.close();
+    }
+}
@@ -0,0 +1,210 @@
+package Utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second cache tier for report bodies, on local disk behind the in-memory {@link ResultCache}.
+ * Reports evicted from memory are written here as blobs holding the UTF-8 body and its gzip
+ * copy, so a later view is answered by mapping one file, with no database lookup and no
+ * parsing. The blobs live under -Dcache.l2.dir in two-character fan-out directories
+ * (ab/ab12...v3.blob) and are bounded by -Dcache.l2.maxMB (default 1024, 0 turns the tier
+ * off); the least recently used blobs are deleted first.
+ *
+ * A blob is [int MAGIC][int utf8 length][int gzip length][utf8][gzip]; it is written to a
+ * temp file and renamed into place, so readers never see a partial blob.
+ */
+public class DiskReportCache {
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("cache.l2.dir",
+            "C:\\Users\\yaswant-pt7919\\Malware Analysis\\Cache"));
+    private static final long MAX_BYTES = Long.getLong("cache.l2.maxMB", 1024) * 1024 * 1024;
+    private static final int MAGIC = 0x52505431; // "RPT1"
+    private static final int HEADER_SIZE = 12;
+    private static final String SUFFIX = ".blob";
+
+    // Blob sizes by key, least recently used first
+    private static final LinkedHashMap<String, Long> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private static final Object lock = new Object();
+    private static long totalBytes;
+    private static boolean loaded;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private DiskReportCache() {}
+
+    public static boolean isEnabled() {
+        return MAX_BYTES > 0;
+    }
+
+    public static ResponseBytes get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (lock) {
+            load();
+            if (index.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        Path blob = blobPath(key);
+        try {
+            ByteBuffer mapped = Utils.mapReadOnly(blob);
+            if (mapped.remaining() < HEADER_SIZE || mapped.getInt() != MAGIC) {
+                throw new IOException("not a report blob");
+            }
+            byte[] utf8 = new byte[mapped.getInt()];
+            int gzipLength = mapped.getInt();
+            byte[] gzip = gzipLength > 0 ? new byte[gzipLength] : null;
+            mapped.get(utf8);
+            if (gzip != null) {
+                mapped.get(gzip);
+            }
+            hits.incrementAndGet();
+            return ResponseBytes.of(utf8, gzip);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Dropping unreadable cache blob " + blob + ": " + e.getMessage());
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public static void put(String key, ResponseBytes report) {
+        if (!isEnabled()) {
+            return;
+        }
+        byte[] utf8 = report.getUtf8();
+        byte[] gzip = report.getGzip();
+        long size = HEADER_SIZE + utf8.length + (gzip == null ? 0 : gzip.length);
+        if (size > MAX_BYTES) {
+            return;
+        }
+        synchronized (lock) {
+            load();
+            if (index.containsKey(key)) {
+                return;
+            }
+        }
+
+        Path blob = blobPath(key);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(utf8.length).putInt(gzip == null ? 0 : gzip.length);
+            ReportStore.writeAtomically(blob, header.array(), utf8, gzip == null ? new byte[0] : gzip);
+        } catch (IOException e) {
+            System.err.println("Could not write cache blob " + blob + ": " + e.getMessage());
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (lock) {
+            Long previous = index.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = index.entrySet().iterator();
+            while (totalBytes > MAX_BYTES && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            evictions.incrementAndGet();
+            Utils.deleteTempFile(blobPath(evictedKey));
+        }
+    }
+
+    public static void remove(String key) {
+        synchronized (lock) {
+            Long size = index.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        Utils.deleteTempFile(blobPath(key));
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("entries", index.size());
+            stats.put("sizeKb", totalBytes / 1024);
+        }
+        stats.put("budgetKb", MAX_BYTES / 1024);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private static Path blobPath(String key) {
+        return DIRECTORY.resolve(key.substring(0, Math.min(2, key.length()))).resolve(key + SUFFIX);
+    }
+
+    /**
+     * Indexes the blobs left by earlier runs, oldest first, and clears stale temp files.
+     * Called under the lock.
+     */
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.isDirectory(DIRECTORY)) {
+            return;
+        }
+        List<StoredBlob> blobs = new ArrayList<>();
+        try (DirectoryStream<Path> fanOut = Files.newDirectoryStream(DIRECTORY, Files::isDirectory)) {
+            for (Path subDirectory : fanOut) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(subDirectory)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        if (name.endsWith(".tmp")) {
+                            Utils.deleteTempFile(file);
+                        } else if (name.endsWith(SUFFIX)) {
+                            blobs.add(new StoredBlob(name.substring(0, name.length() - SUFFIX.length()),
+                                    Files.size(file), Files.getLastModifiedTime(file)));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not index cache directory " + DIRECTORY + ": " + e.getMessage());
+        }
+        blobs.sort((a, b) -> a.modified.compareTo(b.modified));
+        for (StoredBlob blob : blobs) {
+            index.put(blob.key, blob.size);
+            totalBytes += blob.size;
+        }
+    }
+
+    private static final class StoredBlob {
+        private final String key;
+        private final long size;
+        private final FileTime modified;
+
+        private StoredBlob(String key, long size, FileTime modified) {
+            this.key = key;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package Utilities;
+
+import Bean.FileRecord;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Files rows by sha1 + 'v' + analyzer version. Rows are small and never change once
+ * their report is saved, so this holds many more entries than the report caches.
+ * Only stored analyses are cached; a miss always goes to the database.
+ */
+public class FileRecordCache {
+
+    private static final Cache<String, FileRecord> cache = Caffeine.newBuilder()
+            .maximumSize(Integer.getInteger("cache.fileRecords", 10_000))
+            .expireAfterAccess(6, TimeUnit.HOURS)
+            .build();
+
+    public static FileRecord get(String sha1, int version) {
+        return cache.getIfPresent(sha1 + 'v' + version);
+    }
+
+    public static void put(FileRecord record) {
+        cache.put(record.getSha1Hash() + 'v' + record.getAnalyzerVersion(), record);
+    }
+}
@@ -0,0 +1,155 @@
+package Utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes several message digests from a single pass over the data.
+ * Chunks large enough to be worth it are fed to the digests in parallel,
+ * one digest per core, so hashing a large upload costs roughly one SHA-512.
+ */
+public class MultiDigest {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA512 = "SHA-512";
+    public static final String[] FILE_ALGORITHMS = {MD5, SHA1, SHA256, SHA512};
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int PARALLEL_THRESHOLD = 256 * 1024;
+    private static final int THREADS = Math.min(FILE_ALGORITHMS.length,
+            Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread thread = new Thread(r, "multi-digest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+    public MultiDigest(String... algorithms) {
+        for (String algorithm : algorithms) {
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Algorithm " + algorithm + " not available", e);
+            }
+        }
+    }
+
+    /**
+     * Hashes the whole array with every algorithm and returns lowercase hex digests
+     * keyed by algorithm name.
+     */
+    public static Map<String, String> compute(byte[] data, String... algorithms) {
+        MultiDigest multiDigest = new MultiDigest(algorithms);
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            multiDigest.update(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+        }
+        return multiDigest.hexDigests();
+    }
+
+    /**
+     * Same as {@link #compute(byte[], String...)} for a buffer such as a mapped file.
+     * The buffer's position is left untouched.
+     */
+    public static Map<String, String> compute(ByteBuffer data, String... algorithms) {
+        MultiDigest multiDigest = new MultiDigest(algorithms);
+        for (int offset = 0; offset < data.limit(); offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, data.limit() - offset);
+            multiDigest.update(Utils.slice(data, offset, length));
+        }
+        return multiDigest.hexDigests();
+    }
+
+    /**
+     * Copies the stream while hashing it, so the upload is digested on its way to disk.
+     */
+    public long copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long total = 0;
+        int filled = 0;
+        int read;
+        while ((read = input.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+            if (filled == buffer.length) {
+                update(buffer, 0, filled);
+                output.write(buffer, 0, filled);
+                total += filled;
+                filled = 0;
+            }
+        }
+        if (filled > 0) {
+            update(buffer, 0, filled);
+            output.write(buffer, 0, filled);
+            total += filled;
+        }
+        return total;
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        if (length < PARALLEL_THRESHOLD || digests.size() < 2 || THREADS < 2) {
+            for (MessageDigest digest : digests.values()) {
+                digest.update(data, offset, length);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(digests.size());
+        for (MessageDigest digest : digests.values()) {
+            futures.add(executor.submit(() -> digest.update(data, offset, length)));
+        }
+        awaitAll(futures);
+    }
+
+    private static void awaitAll(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Hashing failed", e.getCause());
+        }
+    }
+
+    public void update(ByteBuffer data) {
+        if (data.remaining() < PARALLEL_THRESHOLD || digests.size() < 2 || THREADS < 2) {
+            for (MessageDigest digest : digests.values()) {
+                digest.update(data.duplicate());
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(digests.size());
+        for (MessageDigest digest : digests.values()) {
+            ByteBuffer view = data.duplicate();
+            futures.add(executor.submit(() -> digest.update(view)));
+        }
+        awaitAll(futures);
+    }
+
+    public Map<String, String> hexDigests() {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            result.put(entry.getKey(), Utils.bytesToHex(entry.getValue().digest()));
+        }
+        return result;
+    }
+}
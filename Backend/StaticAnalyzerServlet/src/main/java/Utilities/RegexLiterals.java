@@ -0,0 +1,466 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The literal text any match of a regex must contain, read off the pattern, so a
+ * {@link StringIndex} can rule out lines before the regex runs on them. The result is
+ * an AND of clauses, each an OR of literals: "(http|ftp)://\w+\.exe" needs "http" or
+ * "ftp", and "://", and ".exe". Anything the reader is unsure of drops out of the
+ * result, which then only asks for less; a pattern it cannot read at all needs nothing.
+ *
+ * It also tells whether a pattern is line-local, i.e. has no anchor and nothing that can
+ * match a line break, so matching it line by line finds what matching the whole text finds.
+ */
+public final class RegexLiterals {
+
+    private static final RegexLiterals NONE = new RegexLiterals(Collections.emptyList(), false);
+
+    private final List<List<String>> required;
+    private final boolean lineLocal;
+
+    private RegexLiterals(List<List<String>> required, boolean lineLocal) {
+        this.required = required;
+        this.lineLocal = lineLocal;
+    }
+
+    public static RegexLiterals of(Pattern pattern) {
+        // Comments mode changes what the text means, Unicode case folding what a literal matches
+        if ((pattern.flags() & (Pattern.COMMENTS | Pattern.UNICODE_CASE | Pattern.UNICODE_CHARACTER_CLASS
+                | Pattern.LITERAL | Pattern.CANON_EQ)) != 0) {
+            return NONE;
+        }
+        Reader reader = new Reader(pattern.pattern(), (pattern.flags() & Pattern.DOTALL) != 0);
+        try {
+            List<List<String>> required = reader.alternation();
+            if (reader.position != reader.regex.length()) {
+                return NONE;
+            }
+            return new RegexLiterals(required, !reader.crossesLines);
+        } catch (Unsupported e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Clauses that must all hold; a clause holds when the text contains any of its literals.
+     */
+    public List<List<String>> getRequired() {
+        return required;
+    }
+
+    public boolean isLineLocal() {
+        return lineLocal;
+    }
+
+    private static final class Unsupported extends Exception {
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Reader {
+        private static final int UNQUANTIFIED = -1;
+
+        private final String regex;
+        private int position;
+        private boolean dotAll;
+        private boolean crossesLines;
+
+        private Reader(String regex, boolean dotAll) {
+            this.regex = regex;
+            this.dotAll = dotAll;
+        }
+
+        /**
+         * Alternatives up to the end or a closing parenthesis. Each alternative contributes its
+         * longest literal to one OR clause, unless one of them needs nothing.
+         */
+        private List<List<String>> alternation() throws Unsupported {
+            List<List<List<String>>> alternatives = new ArrayList<>();
+            alternatives.add(sequence());
+            while (position < regex.length() && regex.charAt(position) == '|') {
+                position++;
+                alternatives.add(sequence());
+            }
+            if (alternatives.size() == 1) {
+                return alternatives.get(0);
+            }
+            List<String> clause = new ArrayList<>();
+            for (List<List<String>> alternative : alternatives) {
+                List<String> best = null;
+                for (List<String> candidate : alternative) {
+                    if (best == null || shortest(candidate) > shortest(best)) {
+                        best = candidate;
+                    }
+                }
+                if (best == null) {
+                    return new ArrayList<>();
+                }
+                clause.addAll(best);
+            }
+            List<List<String>> required = new ArrayList<>();
+            required.add(clause);
+            return required;
+        }
+
+        private static int shortest(List<String> clause) {
+            int shortest = Integer.MAX_VALUE;
+            for (String literal : clause) {
+                shortest = Math.min(shortest, literal.length());
+            }
+            return shortest;
+        }
+
+        private List<List<String>> sequence() throws Unsupported {
+            List<List<String>> required = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            while (position < regex.length()) {
+                char ch = regex.charAt(position);
+                if (ch == '|' || ch == ')') {
+                    break;
+                }
+                position++;
+                switch (ch) {
+                    case '(':
+                        group(required, run);
+                        break;
+                    case '[':
+                        flush(required, run);
+                        characterClass();
+                        quantifier();
+                        break;
+                    case '.':
+                        flush(required, run);
+                        crossesLines |= dotAll;
+                        quantifier();
+                        break;
+                    case '^':
+                    case '$':
+                        flush(required, run);
+                        crossesLines = true;
+                        break;
+                    case '\\':
+                        escape(required, run);
+                        break;
+                    case '*':
+                    case '+':
+                    case '?':
+                    case '{':
+                        throw new Unsupported();
+                    default:
+                        literal(required, run, ch);
+                }
+            }
+            flush(required, run);
+            return required;
+        }
+
+        private void literal(List<List<String>> required, StringBuilder run, char ch) throws Unsupported {
+            if (ch < 0x20 || ch == 0x85 || ch == 0x2028 || ch == 0x2029) {
+                // A line break, or close enough
+                crossesLines = true;
+                flush(required, run);
+                quantifier();
+            } else if (Character.isSurrogate(ch)) {
+                flush(required, run);
+                quantifier();
+            } else {
+                repeated(required, run, ch, quantifier());
+            }
+        }
+
+        /**
+         * Adds a char to the run as its quantifier allows: an optional char ends the run
+         * without it, a repeated one ends the run with it and starts the next.
+         */
+        private static void repeated(List<List<String>> required, StringBuilder run, char ch, int minimum) {
+            if (minimum == UNQUANTIFIED) {
+                run.append(ch);
+            } else if (minimum == 0) {
+                flush(required, run);
+            } else {
+                run.append(ch);
+                flush(required, run);
+                run.append(ch);
+            }
+        }
+
+        /**
+         * Consumes a quantifier after an atom, if any, and returns its minimum count, or
+         * UNQUANTIFIED when there is none.
+         */
+        private int quantifier() throws Unsupported {
+            if (position >= regex.length()) {
+                return UNQUANTIFIED;
+            }
+            int minimum;
+            char ch = regex.charAt(position);
+            if (ch == '?' || ch == '*') {
+                minimum = 0;
+                position++;
+            } else if (ch == '+') {
+                minimum = 1;
+                position++;
+            } else if (ch == '{') {
+                int end = regex.indexOf('}', position);
+                if (end < 0) {
+                    throw new Unsupported();
+                }
+                String bounds = regex.substring(position + 1, end);
+                int comma = bounds.indexOf(',');
+                try {
+                    minimum = Integer.parseInt((comma < 0 ? bounds : bounds.substring(0, comma)).trim());
+                } catch (NumberFormatException e) {
+                    throw new Unsupported();
+                }
+                position = end + 1;
+            } else {
+                return UNQUANTIFIED;
+            }
+            // Lazy and possessive forms
+            if (position < regex.length() && (regex.charAt(position) == '?' || regex.charAt(position) == '+')) {
+                position++;
+            }
+            return minimum;
+        }
+
+        private void group(List<List<String>> required, StringBuilder run) throws Unsupported {
+            boolean lookaround = false;
+            if (position < regex.length() && regex.charAt(position) == '?') {
+                position++;
+                if (position >= regex.length()) {
+                    throw new Unsupported();
+                }
+                char kind = regex.charAt(position);
+                if (kind == '=' || kind == '!') {
+                    lookaround = true;
+                    position++;
+                } else if (kind == '<' && position + 1 < regex.length()
+                        && (regex.charAt(position + 1) == '=' || regex.charAt(position + 1) == '!')) {
+                    lookaround = true;
+                    position += 2;
+                } else if (kind == '<') {
+                    int end = regex.indexOf('>', position);
+                    if (end < 0) {
+                        throw new Unsupported();
+                    }
+                    position = end + 1;
+                } else if (kind == ':' || kind == '>') {
+                    position++;
+                } else {
+                    // Inline flags, (?is) or (?i:...)
+                    int start = position;
+                    while (position < regex.length() && (Character.isLetter(regex.charAt(position))
+                            || regex.charAt(position) == '-')) {
+                        position++;
+                    }
+                    String flags = regex.substring(start, position);
+                    if (flags.indexOf('x') >= 0 || flags.indexOf('u') >= 0 || flags.indexOf('U') >= 0) {
+                        throw new Unsupported();
+                    }
+                    int off = flags.indexOf('-');
+                    if (flags.indexOf('s') >= 0 && (off < 0 || flags.indexOf('s') < off)) {
+                        dotAll = true;
+                    }
+                    if (position >= regex.length()) {
+                        throw new Unsupported();
+                    }
+                    if (regex.charAt(position) == ')') {
+                        position++;
+                        return;
+                    }
+                    if (regex.charAt(position) != ':') {
+                        throw new Unsupported();
+                    }
+                    position++;
+                }
+            }
+            flush(required, run);
+            List<List<String>> inner = alternation();
+            if (position >= regex.length() || regex.charAt(position) != ')') {
+                throw new Unsupported();
+            }
+            position++;
+            int minimum = quantifier();
+            if (!lookaround && minimum != 0) {
+                required.addAll(inner);
+            }
+        }
+
+        private void characterClass() throws Unsupported {
+            int depth = 1;
+            // A ']' right after the opening bracket (or its '^') is a literal
+            if (position < regex.length() && regex.charAt(position) == '^') {
+                crossesLines = true;
+                position++;
+            }
+            if (position < regex.length() && regex.charAt(position) == ']') {
+                position++;
+            }
+            while (position < regex.length()) {
+                char ch = regex.charAt(position++);
+                if (ch == '\\') {
+                    // Any escape may name a line break
+                    crossesLines = true;
+                    if (position < regex.length() && regex.charAt(position) == 'Q') {
+                        int end = regex.indexOf("\\E", position);
+                        position = end < 0 ? regex.length() : end + 2;
+                    } else {
+                        position++;
+                    }
+                } else if (ch == '[') {
+                    depth++;
+                } else if (ch == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                } else if (ch == '^' || ch < 0x20 || ch == 0x85 || ch == 0x2028 || ch == 0x2029) {
+                    crossesLines = true;
+                }
+            }
+            throw new Unsupported();
+        }
+
+        private void escape(List<List<String>> required, StringBuilder run) throws Unsupported {
+            if (position >= regex.length()) {
+                throw new Unsupported();
+            }
+            char ch = regex.charAt(position++);
+            if (!Character.isLetterOrDigit(ch)) {
+                literal(required, run, ch);
+                return;
+            }
+            flush(required, run);
+            switch (ch) {
+                case 'Q': {
+                    int end = regex.indexOf("\\E", position);
+                    String quoted = regex.substring(position, end < 0 ? regex.length() : end);
+                    position = end < 0 ? regex.length() : end + 2;
+                    for (int i = 0; i < quoted.length() - 1; i++) {
+                        char quotedChar = quoted.charAt(i);
+                        if (quotedChar < 0x20 || Character.isSurrogate(quotedChar)) {
+                            crossesLines |= quotedChar < 0x20;
+                            flush(required, run);
+                        } else {
+                            run.append(quotedChar);
+                        }
+                    }
+                    // A quantifier after \E applies to the last quoted char
+                    if (!quoted.isEmpty()) {
+                        literal(required, run, quoted.charAt(quoted.length() - 1));
+                    }
+                    return;
+                }
+                case 'd':
+                case 'w':
+                case 'S':
+                case 'h':
+                case 'V':
+                case 't':
+                case 'f':
+                case 'a':
+                case 'e':
+                    break;
+                case 'D':
+                case 'W':
+                case 's':
+                case 'H':
+                case 'v':
+                case 'R':
+                case 'X':
+                case 'n':
+                case 'r':
+                    crossesLines = true;
+                    break;
+                case 'b':
+                case 'B':
+                    if (position + 2 < regex.length() && regex.startsWith("{g}", position)) {
+                        position += 3;
+                    }
+                    return;
+                case 'A':
+                case 'z':
+                case 'Z':
+                case 'G':
+                    crossesLines = true;
+                    return;
+                case 'p':
+                case 'P':
+                case 'N':
+                    crossesLines = true;
+                    skipArgument(ch != 'N');
+                    break;
+                case 'x':
+                    crossesLines = true;
+                    if (position < regex.length() && regex.charAt(position) == '{') {
+                        skipArgument(false);
+                    } else {
+                        position += 2;
+                    }
+                    break;
+                case 'u':
+                    crossesLines = true;
+                    position += 4;
+                    break;
+                case 'c':
+                    crossesLines = true;
+                    position++;
+                    break;
+                case '0':
+                    crossesLines = true;
+                    for (int digits = 0; digits < 3 && position < regex.length()
+                            && regex.charAt(position) >= '0' && regex.charAt(position) <= '7'; digits++) {
+                        position++;
+                    }
+                    break;
+                case 'k':
+                    skipArgument(false);
+                    break;
+                default:
+                    if (ch >= '1' && ch <= '9') {
+                        // Back reference
+                        while (position < regex.length() && Character.isDigit(regex.charAt(position))) {
+                            position++;
+                        }
+                        break;
+                    }
+                    throw new Unsupported();
+            }
+            quantifier();
+        }
+
+        /**
+         * Skips the {...} or <...> argument of an escape, or its one-letter form when allowed.
+         */
+        private void skipArgument(boolean oneLetter) throws Unsupported {
+            if (position >= regex.length()) {
+                throw new Unsupported();
+            }
+            char open = regex.charAt(position);
+            char close = open == '{' ? '}' : open == '<' ? '>' : 0;
+            if (close == 0) {
+                if (!oneLetter) {
+                    throw new Unsupported();
+                }
+                position++;
+                return;
+            }
+            int end = regex.indexOf(close, position);
+            if (end < 0) {
+                throw new Unsupported();
+            }
+            position = end + 1;
+        }
+
+        private static void flush(List<List<String>> required, StringBuilder run) {
+            if (run.length() > 0) {
+                required.add(Collections.singletonList(run.toString()));
+                run.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package Utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk format of the report and artifacts files. Files are written in the encoding set
+ * by -Dreport.storage: "json" (default, plain UTF-8 JSON as before) or "gzip". An encoded
+ * file starts with a header, [0x89 'R' 'P' 'T'][format version][encoding], that plain JSON
+ * can never start with, so files of either kind are read back transparently.
+ *
+ * A gzip file's payload is served unchanged to clients that accept gzip, so compressed
+ * storage costs no extra CPU on the read path. {@link #main} converts existing files.
+ */
+public class ReportCodec {
+
+    public enum Encoding { JSON, GZIP }
+
+    private static final byte[] MAGIC = {(byte) 0x89, 'R', 'P', 'T'};
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 2;
+
+    private static final Encoding STORAGE = Encoding.valueOf(
+            System.getProperty("report.storage", "json").toUpperCase());
+
+    private ReportCodec() {}
+
+    /**
+     * Encodes a document for storage in the configured encoding.
+     */
+    public static byte[] encode(byte[] json) {
+        return encode(ResponseBytes.of(json, null), STORAGE);
+    }
+
+    /**
+     * Encodes a response body, reusing its gzip copy when it has one.
+     */
+    public static byte[] encode(ResponseBytes body) {
+        return encode(body, STORAGE);
+    }
+
+    private static byte[] encode(ResponseBytes body, Encoding encoding) {
+        if (encoding == Encoding.JSON) {
+            return body.getUtf8();
+        }
+        byte[] gzip = body.getGzip() != null ? body.getGzip() : ResponseBytes.gzip(body.getUtf8());
+        byte[] stored = new byte[HEADER_SIZE + gzip.length];
+        System.arraycopy(MAGIC, 0, stored, 0, MAGIC.length);
+        stored[MAGIC.length] = FORMAT_VERSION;
+        stored[MAGIC.length + 1] = (byte) encoding.ordinal();
+        System.arraycopy(gzip, 0, stored, HEADER_SIZE, gzip.length);
+        return stored;
+    }
+
+    /**
+     * Wraps a file stream so what is written to it is stored in the configured encoding.
+     * The returned stream must be closed to complete the file.
+     */
+    public static OutputStream encoder(OutputStream target) throws IOException {
+        if (STORAGE == Encoding.JSON) {
+            return target;
+        }
+        target.write(MAGIC);
+        target.write(FORMAT_VERSION);
+        target.write(STORAGE.ordinal());
+        return new GZIPOutputStream(target, 64 * 1024);
+    }
+
+    /**
+     * Wraps a stored file's stream so it reads as UTF-8 JSON, whatever the file's encoding.
+     */
+    public static InputStream decoder(InputStream stored) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(stored, HEADER_SIZE);
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        int read;
+        while (length < HEADER_SIZE && (read = input.read(header, length, HEADER_SIZE - length)) != -1) {
+            length += read;
+        }
+        byte[] peeked = Arrays.copyOf(header, length);
+        if (encodingOf(peeked) == Encoding.JSON) {
+            input.unread(peeked);
+            return input;
+        }
+        return new GZIPInputStream(input, 64 * 1024);
+    }
+
+    public static Encoding encodingOf(byte[] stored) throws IOException {
+        if (stored.length < HEADER_SIZE || stored[0] != MAGIC[0] || stored[1] != MAGIC[1]
+                || stored[2] != MAGIC[2] || stored[3] != MAGIC[3]) {
+            return Encoding.JSON;
+        }
+        if (stored[MAGIC.length] != FORMAT_VERSION || stored[MAGIC.length + 1] != Encoding.GZIP.ordinal()) {
+            throw new IOException("Unsupported report format " + stored[MAGIC.length]
+                    + "/" + stored[MAGIC.length + 1]);
+        }
+        return Encoding.GZIP;
+    }
+
+    /**
+     * Reads a stored file as UTF-8 JSON, whatever its encoding.
+     */
+    public static byte[] read(Path path) throws IOException {
+        return decode(Files.readAllBytes(path));
+    }
+
+    /**
+     * Reads a stored report as a response body; a gzip file becomes the body's gzip copy as is.
+     */
+    public static ResponseBytes readResponse(Path path) throws IOException {
+        byte[] stored = Files.readAllBytes(path);
+        if (encodingOf(stored) == Encoding.JSON) {
+            return ResponseBytes.of(stored);
+        }
+        byte[] gzip = new byte[stored.length - HEADER_SIZE];
+        System.arraycopy(stored, HEADER_SIZE, gzip, 0, gzip.length);
+        return ResponseBytes.of(gunzip(stored, HEADER_SIZE), gzip);
+    }
+
+    public static byte[] decode(byte[] stored) throws IOException {
+        return encodingOf(stored) == Encoding.JSON ? stored : gunzip(stored, HEADER_SIZE);
+    }
+
+    private static byte[] gunzip(byte[] data, int offset) throws IOException {
+        ReusableBuffer plain = ReusableBuffer.acquire();
+        try (InputStream input = new GZIPInputStream(
+                new ByteArrayInputStream(data, offset, data.length - offset), 64 * 1024)) {
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                plain.write(chunk, 0, read);
+            }
+            return plain.toByteArray();
+        } finally {
+            plain.release();
+        }
+    }
+
+    /**
+     * Migration tool: rewrites the report files under the given directories in one encoding.
+     * Files already in that encoding are left alone, and each file is replaced by a rename,
+     * so an interrupted run leaves every file readable. File names do not change, so the
+     * paths in the Files table stay valid.
+     *
+     * Usage: ReportCodec json|gzip directory...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ReportCodec json|gzip directory...");
+            System.exit(2);
+        }
+        Encoding target = Encoding.valueOf(args[0].toUpperCase());
+        int converted = 0;
+        int skipped = 0;
+        int failed = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        for (int i = 1; i < args.length; i++) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(Paths.get(args[i]))) {
+                files = walk.filter(Files::isRegularFile)
+                        .filter(file -> file.getFileName().toString().endsWith(".json"))
+                        .collect(Collectors.toCollection(ArrayList::new));
+            }
+            for (Path file : files) {
+                try {
+                    byte[] stored = Files.readAllBytes(file);
+                    if (encodingOf(stored) == target) {
+                        skipped++;
+                        continue;
+                    }
+                    byte[] rewritten = encode(ResponseBytes.of(decode(stored), null), target);
+                    ReportStore.writeAtomically(file, rewritten);
+                    converted++;
+                    bytesBefore += stored.length;
+                    bytesAfter += rewritten.length;
+                } catch (IOException | RuntimeException e) {
+                    failed++;
+                    System.err.println("Could not convert " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("Converted " + converted + " files (" + bytesBefore / 1024 + " KB -> "
+                + bytesAfter / 1024 + " KB), " + skipped + " already " + target.name().toLowerCase()
+                + ", " + failed + " failed");
+    }
+}
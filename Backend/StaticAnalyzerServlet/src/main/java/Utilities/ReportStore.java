@@ -0,0 +1,114 @@
+package Utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Content-addressed layout of the report and artifacts files. A sample's files are named
+ * after its SHA-256 and analyzer version and sit two fan-out levels deep, e.g.
+ * Analysis Results/ab/cd/abcd..._v3.json, so samples uploaded under the same file name no
+ * longer overwrite each other and no directory grows past a few thousand entries. Since
+ * the path follows from the hash, a sample's report can be found without the
+ * json_file_path column; rows written before this layout keep their own paths.
+ *
+ * Roots are -Dreport.dir and -Dartifacts.dir. All writes go through a temp file in the
+ * target directory that is forced to disk and renamed into place, so a reader sees either
+ * no file or a complete one.
+ */
+public class ReportStore {
+
+    private static final Path REPORTS_ROOT = Paths.get(System.getProperty("report.dir",
+            "C:\\Users\\yaswant-pt7919\\Malware Analysis\\Analysis Results"));
+    private static final Path ARTIFACTS_ROOT = Paths.get(System.getProperty("artifacts.dir",
+            "C:\\Users\\yaswant-pt7919\\Malware Analysis\\Artifacts"));
+
+    private ReportStore() {}
+
+    public static Path reportPath(String sha256, int analyzerVersion) {
+        return shard(REPORTS_ROOT, sha256).resolve(sha256 + "_v" + analyzerVersion + ".json");
+    }
+
+    public static Path artifactsPath(String sha256, int analyzerVersion) {
+        return shard(ARTIFACTS_ROOT, sha256).resolve(sha256 + "_v" + analyzerVersion + "_Artifacts.json");
+    }
+
+    public static Path artifactSegmentsPath(String sha256, int analyzerVersion) {
+        return shard(ARTIFACTS_ROOT, sha256).resolve(sha256 + "_v" + analyzerVersion + "_Artifacts.seg");
+    }
+
+    public static Path stringIndexPath(String sha256, int analyzerVersion) {
+        return shard(ARTIFACTS_ROOT, sha256).resolve(sha256 + "_v" + analyzerVersion + "_Strings.idx");
+    }
+
+    /**
+     * The stored report of a sample, or null when it has not been written yet.
+     */
+    public static Path findReport(String sha256, int analyzerVersion) {
+        Path report = reportPath(sha256, analyzerVersion);
+        return Files.isRegularFile(report) ? report : null;
+    }
+
+    private static Path shard(Path root, String sha256) {
+        return root.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4));
+    }
+
+    /**
+     * Writes the parts one after another to a temp file next to the target, then renames
+     * it over the target.
+     */
+    public static void writeAtomically(Path target, byte[]... parts) throws IOException {
+        writeAtomically(target, output -> {
+            for (byte[] part : parts) {
+                output.write(part);
+            }
+        });
+    }
+
+    /**
+     * Produces a file's content into a stream; closing the stream is allowed but not needed.
+     */
+    public interface Content {
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Streams the content to a temp file next to the target, forces it to disk and renames
+     * it over the target.
+     */
+    public static void writeAtomically(Path target, Content content) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024) {
+                    @Override
+                    public void close() throws IOException {
+                        // The channel stays open to be forced
+                        flush();
+                    }
+                };
+                content.writeTo(output);
+                output.flush();
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Utils.deleteTempFile(temp);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package Utilities;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A JSON response body ready to be sent: the UTF-8 bytes and, for bodies worth it, the
+ * same bytes gzipped once up front. Serving it is a copy into the response stream, with
+ * no serialization. Pre-compression is on unless -Dcache.gzip=false.
+ */
+public final class ResponseBytes {
+
+    private static final boolean GZIP = !"false".equals(System.getProperty("cache.gzip"));
+    private static final int GZIP_THRESHOLD = 1024;
+
+    private final byte[] utf8;
+    private final byte[] gzip;
+
+    private ResponseBytes(byte[] utf8, byte[] gzip) {
+        this.utf8 = utf8;
+        this.gzip = gzip;
+    }
+
+    public static ResponseBytes of(byte[] utf8) {
+        return new ResponseBytes(utf8, GZIP && utf8.length >= GZIP_THRESHOLD ? gzip(utf8) : null);
+    }
+
+    /**
+     * Builds a body whose gzip copy already exists, such as one read back by {@link DiskReportCache}
+     * or {@link ReportCodec}; null means no gzip copy.
+     */
+    static ResponseBytes of(byte[] utf8, byte[] gzip) {
+        return new ResponseBytes(utf8, gzip);
+    }
+
+    static byte[] gzip(byte[] data) {
+        ReusableBuffer compressed = ReusableBuffer.acquire();
+        try {
+            try (GZIPOutputStream output = new GZIPOutputStream(compressed, 64 * 1024)) {
+                output.write(data);
+            }
+            return compressed.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            compressed.release();
+        }
+    }
+
+    public byte[] getUtf8() {
+        return utf8;
+    }
+
+    /**
+     * The gzip copy, or null when the body was not pre-compressed.
+     */
+    byte[] getGzip() {
+        return gzip;
+    }
+
+    /**
+     * Heap held by this body, for cache weighing.
+     */
+    public long size() {
+        return utf8.length + (gzip == null ? 0 : gzip.length);
+    }
+
+    /**
+     * Writes the body to the response stream, gzipped when the client accepts it.
+     * Nothing may have been written to the response yet.
+     */
+    public void writeTo(HttpServletRequest request, HttpServletResponse response, OutputStream output)
+            throws IOException {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        response.addHeader("Vary", "Accept-Encoding");
+        if (gzip != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength(gzip.length);
+            output.write(gzip);
+        } else {
+            response.setContentLength(utf8.length);
+            output.write(utf8);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package Utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of analysis documents, keyed by sha1 + 'v' + analyzer version.
+ * Reports are held as the finished response bodies ({@link ResponseBytes}), so a hit is
+ * served without touching Jackson; artifacts are held as parsed trees, since they are
+ * paged and filtered per request. The two live in separate regions so a few huge artifact
+ * trees cannot push out the small reports. Each region is bounded by an estimated heap
+ * size, not an entry count: a report weighs its bytes, an artifacts tree its JSON text
+ * size times TREE_OVERHEAD, the rough cost of a Jackson tree over its text.
+ *
+ * Reports evicted from memory drop to the {@link DiskReportCache} tier and are moved back on
+ * their next hit.
+ *
+ * The budget is -Dcache.budgetMB (default an eighth of the max heap), of which
+ * -Dcache.reportsPercent (default 25) goes to reports and the rest to artifacts.
+ */
+public class ResultCache {
+
+    public enum Region { REPORTS, ARTIFACTS }
+
+    private static final int TREE_OVERHEAD = 4;
+    private static final String SEGMENTS_SUFFIX = "#segments";
+    private static final String STRINGS_SUFFIX = "#strings";
+    private static final long BUDGET_KB = Long.getLong("cache.budgetMB",
+            Runtime.getRuntime().maxMemory() / 8 / (1024 * 1024)) * 1024;
+    private static final int REPORTS_PERCENT = Integer.getInteger("cache.reportsPercent", 25);
+
+    private static final Map<Region, Cache<String, Entry>> regions = new LinkedHashMap<>();
+    private static final Map<Region, Long> budgets = new LinkedHashMap<>();
+
+    static {
+        long reportsKb = BUDGET_KB * REPORTS_PERCENT / 100;
+        budgets.put(Region.REPORTS, reportsKb);
+        budgets.put(Region.ARTIFACTS, BUDGET_KB - reportsKb);
+        for (Region region : Region.values()) {
+            Caffeine<String, Entry> builder = Caffeine.newBuilder()
+                    .maximumWeight(budgets.get(region))
+                    .weigher((String key, Entry entry) -> entry.weightKb)
+                    .expireAfterAccess(60, TimeUnit.MINUTES)
+                    .recordStats();
+            if (region == Region.REPORTS && DiskReportCache.isEnabled()) {
+                // Evicted reports drop to the disk tier
+                builder = builder.removalListener((String key, Entry entry, RemovalCause cause) -> {
+                    if (cause.wasEvicted() && key != null && entry != null) {
+                        DiskReportCache.put(key, (ResponseBytes) entry.value);
+                    }
+                });
+            }
+            regions.put(region, builder.build());
+        }
+    }
+
+    private ResultCache() {}
+
+    /**
+     * Looks in memory, then in the {@link DiskReportCache}; disk hits are moved back into memory.
+     */
+    public static ResponseBytes getReport(String key) {
+        Entry entry = regions.get(Region.REPORTS).getIfPresent(key);
+        if (entry != null) {
+            return (ResponseBytes) entry.value;
+        }
+        ResponseBytes report = DiskReportCache.get(key);
+        if (report != null) {
+            putReport(key, report);
+        }
+        return report;
+    }
+
+    public static void putReport(String key, ResponseBytes report) {
+        if (!put(Region.REPORTS, key, report, report.size())) {
+            // Too big for memory, still worth keeping on disk
+            DiskReportCache.put(key, report);
+        }
+    }
+
+    /**
+     * Drops a report from memory and from the disk tier.
+     */
+    public static void removeReport(String key) {
+        regions.get(Region.REPORTS).invalidate(key);
+        DiskReportCache.remove(key);
+    }
+
+    public static JsonNode getArtifacts(String key) {
+        Entry entry = regions.get(Region.ARTIFACTS).getIfPresent(key);
+        return entry == null ? null : (JsonNode) entry.value;
+    }
+
+    /**
+     * @param textBytes size of the JSON text the node was parsed from, used to weigh it
+     */
+    public static void putArtifacts(String key, JsonNode node, long textBytes) {
+        put(Region.ARTIFACTS, key, node, textBytes * TREE_OVERHEAD);
+    }
+
+    /**
+     * Index of a sample's artifact segments; shares the artifacts region with parsed trees.
+     */
+    public static ArtifactSegments getArtifactSegments(String key) {
+        Entry entry = regions.get(Region.ARTIFACTS).getIfPresent(key + SEGMENTS_SUFFIX);
+        return entry == null ? null : (ArtifactSegments) entry.value;
+    }
+
+    public static void putArtifactSegments(String key, ArtifactSegments segments) {
+        put(Region.ARTIFACTS, key + SEGMENTS_SUFFIX, segments, segments.getIndexBytes() * TREE_OVERHEAD);
+    }
+
+    /**
+     * A sample's string index. Its file is memory-mapped, so the entry costs next to no heap.
+     */
+    public static StringIndex getStringIndex(String key) {
+        Entry entry = regions.get(Region.ARTIFACTS).getIfPresent(key + STRINGS_SUFFIX);
+        return entry == null ? null : (StringIndex) entry.value;
+    }
+
+    public static void putStringIndex(String key, StringIndex index) {
+        put(Region.ARTIFACTS, key + STRINGS_SUFFIX, index, 0);
+    }
+
+    private static boolean put(Region region, String key, Object value, long heapBytes) {
+        long weightKb = Math.max(1, heapBytes / 1024);
+        if (weightKb > budgets.get(region)) {
+            // Would evict the whole region and then itself
+            return false;
+        }
+        regions.get(region).put(key, new Entry(value, (int) weightKb));
+        return true;
+    }
+
+    public static boolean contains(Region region, String key) {
+        return regions.get(region).getIfPresent(key) != null;
+    }
+
+    /**
+     * Hit, miss and eviction counters and the current weight of every region.
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<Region, Cache<String, Entry>> region : regions.entrySet()) {
+            Cache<String, Entry> cache = region.getValue();
+            CacheStats cacheStats = cache.stats();
+            Map<String, Object> regionStats = new LinkedHashMap<>();
+            regionStats.put("entries", cache.estimatedSize());
+            regionStats.put("weightKb", cache.policy().eviction()
+                    .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+            regionStats.put("budgetKb", budgets.get(region.getKey()));
+            regionStats.put("hits", cacheStats.hitCount());
+            regionStats.put("misses", cacheStats.missCount());
+            regionStats.put("hitRate", cacheStats.hitRate());
+            regionStats.put("evictions", cacheStats.evictionCount());
+            regionStats.put("evictedKb", cacheStats.evictionWeight());
+            stats.put(region.getKey().name().toLowerCase(), regionStats);
+        }
+        stats.put("reportsDisk", DiskReportCache.getStats());
+        return stats;
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final int weightKb;
+
+        private Entry(Object value, int weightKb) {
+            this.value = value;
+            this.weightKb = weightKb;
+        }
+    }
+}
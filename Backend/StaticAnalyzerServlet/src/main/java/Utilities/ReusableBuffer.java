@@ -0,0 +1,50 @@
+package Utilities;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Growable byte buffer kept per thread and reused, so serializing a large report or journal
+ * record does not regrow a fresh array every time. Buffers that grew past
+ * -Dbuffer.retainKB (default 4096) are dropped on {@link #release()} rather than kept
+ * pinned to a pool thread.
+ *
+ * Use as acquire, write, copy out or consume, release; a thread holds one buffer at a time.
+ */
+public final class ReusableBuffer extends ByteArrayOutputStream {
+
+    private static final int RETAIN_LIMIT = Integer.getInteger("buffer.retainKB", 4096) * 1024;
+    private static final ThreadLocal<ReusableBuffer> buffers = ThreadLocal.withInitial(ReusableBuffer::new);
+
+    private ReusableBuffer() {
+        super(64 * 1024);
+    }
+
+    public static ReusableBuffer acquire() {
+        ReusableBuffer buffer = buffers.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    public void release() {
+        if (buf.length > RETAIN_LIMIT) {
+            buffers.remove();
+        }
+    }
+
+    /**
+     * The backing array; only the first {@link #size()} bytes are content.
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Overwrites four already written bytes, big-endian.
+     */
+    public void putInt(int index, int value) {
+        buf[index] = (byte) (value >>> 24);
+        buf[index + 1] = (byte) (value >>> 16);
+        buf[index + 2] = (byte) (value >>> 8);
+        buf[index + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,137 @@
+package Utilities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the (sha1, analyzer version) pairs of the Files table, so lookups of
+ * unknown hashes are answered without a query. {@link #mightContain} never returns false
+ * for a stored analysis; it may return true for a missing one (about 1% of the time at
+ * capacity). Until the first {@link #rebuild} has finished it answers true for everything.
+ *
+ * The bits live in an AtomicLongArray, so lookups need no locking. Capacity is
+ * twice the row count at rebuild time, at least -Dsha1filter.minCapacity (default 1M);
+ * once the inserts exceed it {@link #needsRebuild()} turns true.
+ */
+public class Sha1Filter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long MIN_CAPACITY = Long.getLong("sha1filter.minCapacity", 1_000_000L);
+
+    private static volatile Bits bits;
+    // Filter being filled by a rebuild; inserts go to it too so none is lost
+    private static Bits building;
+    private static final Object lock = new Object();
+
+    private Sha1Filter() {}
+
+    public static boolean mightContain(String sha1, int version) {
+        Bits current = bits;
+        return current == null || current.mightContain(sha1, version);
+    }
+
+    public static void add(String sha1, int version) {
+        synchronized (lock) {
+            if (bits != null) bits.add(sha1, version);
+            if (building != null) building.add(sha1, version);
+        }
+    }
+
+    public static boolean needsRebuild() {
+        Bits current = bits;
+        return current != null && current.count.get() > current.capacity;
+    }
+
+    /**
+     * Receives the pairs to load into a new filter.
+     */
+    public interface Loader {
+        void load(Sink sink) throws Exception;
+    }
+
+    public interface Sink {
+        void accept(String sha1, int version);
+    }
+
+    /**
+     * Builds a new filter sized for the row count and swaps it in once loaded.
+     */
+    public static void rebuild(long rowCount, Loader loader) throws Exception {
+        Bits next = new Bits(Math.max(MIN_CAPACITY, rowCount * 2));
+        synchronized (lock) {
+            building = next;
+        }
+        try {
+            loader.load(next::add);
+            synchronized (lock) {
+                bits = next;
+            }
+        } finally {
+            synchronized (lock) {
+                building = null;
+            }
+        }
+    }
+
+    private static final class Bits {
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+        private final long capacity;
+        private final AtomicLong count = new AtomicLong();
+
+        private Bits(long capacity) {
+            this.capacity = capacity;
+            // m = -n ln p / (ln 2)^2, k = m / n ln 2
+            long m = (long) Math.ceil(-capacity * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+            int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+            this.words = new AtomicLongArray(wordCount);
+            this.bitCount = wordCount * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+        }
+
+        private void add(String sha1, int version) {
+            long h1 = hash(sha1, version, 0x9E3779B97F4A7C15L);
+            long h2 = hash(sha1, version, 0xC2B2AE3D27D4EB4FL) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old;
+                do {
+                    old = words.get(word);
+                    if ((old & mask) != 0) break;
+                } while (!words.compareAndSet(word, old, old | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        private boolean mightContain(String sha1, int version) {
+            long h1 = hash(sha1, version, 0x9E3779B97F4A7C15L);
+            long h2 = hash(sha1, version, 0xC2B2AE3D27D4EB4FL) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a over the key, finished with the murmur3 64-bit mix
+        private static long hash(String sha1, int version, long seed) {
+            long h = 0xcbf29ce484222325L ^ seed;
+            for (byte b : sha1.getBytes(StandardCharsets.UTF_8)) {
+                h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+            }
+            h = (h ^ version) * 0x100000001b3L;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
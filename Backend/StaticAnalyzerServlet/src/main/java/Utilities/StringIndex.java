@@ -0,0 +1,547 @@
+package Utilities;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Trigram index over a sample's extracted strings, one string per line, so a regex search
+ * only runs on the lines holding every literal the pattern needs (see {@link RegexLiterals})
+ * instead of on the whole text. Written next to the artifacts file when they are saved, or
+ * built from an older artifacts file on its first search.
+ *
+ * Trigrams are taken over the UTF-8 bytes of each line with ASCII letters lowercased, so
+ * one index serves case-sensitive and case-insensitive patterns alike; what it returns are
+ * candidates, which the regex still has to confirm.
+ *
+ * Layout: [int MAGIC][int line count][int text bytes][int trigram count], the line start
+ * offsets (line count + 1 ints), the text as UTF-8 with the line breaks dropped, the
+ * trigrams in ascending order, the posting list offsets (trigram count + 1 ints, relative
+ * to the first list) and the posting lists: ascending line numbers, each stored as a
+ * varint of its distance from the previous one.
+ */
+public class StringIndex {
+
+    private static final int MAGIC = 0x53495831; // "SIX1"
+    private static final int HEADER_SIZE = 16;
+    private static final JsonFactory factory = new JsonFactory();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Postings per sorted run, a quarter of the artifacts memory budget at 8 bytes each
+    private static final int RUN_CAPACITY = (int) Math.min(Integer.MAX_VALUE - 8,
+            Math.max(4096, Long.getLong("artifacts.memoryMB", 256) * 1024 * 1024 / 4 / 8));
+
+    private final ByteBuffer data;
+    private final int lineCount;
+    private final int trigramCount;
+    private final int textStart;
+    private final int trigramsStart;
+    private final int postingOffsetsStart;
+    private final int postingsStart;
+
+    private StringIndex(ByteBuffer data) throws IOException {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a string index");
+        }
+        this.data = data;
+        this.lineCount = data.getInt(4);
+        int textBytes = data.getInt(8);
+        this.trigramCount = data.getInt(12);
+        this.textStart = HEADER_SIZE + 4 * (lineCount + 1);
+        this.trigramsStart = textStart + textBytes;
+        this.postingOffsetsStart = trigramsStart + 4 * trigramCount;
+        this.postingsStart = postingOffsetsStart + 4 * (trigramCount + 1);
+        if (postingsStart > data.limit()) {
+            throw new IOException("Truncated string index");
+        }
+    }
+
+    /**
+     * Maps an index file; nothing is read into the heap until it is searched.
+     */
+    public static StringIndex open(Path path) throws IOException {
+        return new StringIndex(Utils.mapReadOnly(path));
+    }
+
+    /**
+     * Indexes text whose lines are separated by '\n'. Only the current line and one run of
+     * postings are held at a time: a run is sorted and spilled to a temp file once it reaches
+     * a quarter of -Dartifacts.memoryMB, and the runs are merged into the posting lists. The
+     * text and the merged lists also go through temp files until the counts in the header
+     * are known.
+     */
+    public static void write(Reader text, OutputStream target) throws IOException {
+        List<Path> temps = new ArrayList<>();
+        try {
+            Path lineStartsFile = tempFile(temps);
+            Path textFile = tempFile(temps);
+            PostingRuns postings = new PostingRuns(temps);
+            int lines = 0;
+            long textBytes = 0;
+            try (DataOutputStream lineStarts = new DataOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(lineStartsFile), BUFFER_SIZE));
+                 OutputStream textOutput = new BufferedOutputStream(Files.newOutputStream(textFile), BUFFER_SIZE)) {
+                GrowableBytes line = new GrowableBytes();
+                int[] lineTrigrams = new int[256];
+                char highSurrogate = 0;
+                char[] chunk = new char[8192];
+                boolean ended = false;
+                while (!ended) {
+                    int read = text.read(chunk, 0, chunk.length);
+                    ended = read < 0;
+                    for (int i = 0; i <= (ended ? 0 : read - 1); i++) {
+                        char ch = ended ? '\n' : chunk[i];
+                        if (highSurrogate != 0) {
+                            // Encoded as String.getBytes would, a lone surrogate as '?'
+                            if (Character.isLowSurrogate(ch)) {
+                                line.appendUtf8(Character.toCodePoint(highSurrogate, ch));
+                                highSurrogate = 0;
+                                continue;
+                            }
+                            line.appendUtf8('?');
+                            highSurrogate = 0;
+                        }
+                        if (ch != '\n') {
+                            if (Character.isHighSurrogate(ch)) {
+                                highSurrogate = ch;
+                            } else {
+                                line.appendUtf8(Character.isLowSurrogate(ch) ? '?' : ch);
+                            }
+                            continue;
+                        }
+                        // End of a line: record where it started and its distinct trigrams
+                        if (textBytes + line.size > Integer.MAX_VALUE) {
+                            throw new IOException("Extracted strings too large to index");
+                        }
+                        lineStarts.writeInt((int) textBytes);
+                        int count = Math.max(0, line.size - 2);
+                        if (count > lineTrigrams.length) {
+                            lineTrigrams = new int[Math.max(count, lineTrigrams.length * 2)];
+                        }
+                        for (int t = 0; t < count; t++) {
+                            lineTrigrams[t] = trigram(line.data, t);
+                        }
+                        Arrays.sort(lineTrigrams, 0, count);
+                        for (int t = 0; t < count; t++) {
+                            if (t == 0 || lineTrigrams[t] != lineTrigrams[t - 1]) {
+                                postings.add((long) lineTrigrams[t] << 32 | lines);
+                            }
+                        }
+                        textOutput.write(line.data, 0, line.size);
+                        textBytes += line.size;
+                        line.size = 0;
+                        lines++;
+                    }
+                }
+                lineStarts.writeInt((int) textBytes);
+            }
+
+            Path trigramsFile = tempFile(temps);
+            Path offsetsFile = tempFile(temps);
+            Path listsFile = tempFile(temps);
+            int trigramCount = 0;
+            try (DataOutputStream trigrams = new DataOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(trigramsFile), BUFFER_SIZE));
+                 DataOutputStream postingOffsets = new DataOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(offsetsFile), BUFFER_SIZE));
+                 OutputStream lists = new BufferedOutputStream(Files.newOutputStream(listsFile), BUFFER_SIZE);
+                 PostingRuns.Merge merge = postings.merge()) {
+                int trigram = -1;
+                int previousLine = -1;
+                long listBytes = 0;
+                for (long posting = merge.next(); posting >= 0; posting = merge.next()) {
+                    int key = (int) (posting >>> 32);
+                    int lineNumber = (int) posting;
+                    if (key != trigram) {
+                        if (listBytes > Integer.MAX_VALUE) {
+                            throw new IOException("Extracted strings too large to index");
+                        }
+                        trigram = key;
+                        trigrams.writeInt(key);
+                        postingOffsets.writeInt((int) listBytes);
+                        trigramCount++;
+                        previousLine = -1;
+                    }
+                    listBytes += writeVarint(lists, lineNumber - previousLine - 1);
+                    previousLine = lineNumber;
+                }
+                if (listBytes > Integer.MAX_VALUE) {
+                    throw new IOException("Extracted strings too large to index");
+                }
+                postingOffsets.writeInt((int) listBytes);
+            }
+
+            DataOutputStream output = new DataOutputStream(target);
+            output.writeInt(MAGIC);
+            output.writeInt(lines);
+            output.writeInt((int) textBytes);
+            output.writeInt(trigramCount);
+            for (Path part : Arrays.asList(lineStartsFile, textFile, trigramsFile, offsetsFile, listsFile)) {
+                Files.copy(part, output);
+            }
+            output.flush();
+        } finally {
+            for (Path temp : temps) {
+                Utils.deleteTempFile(temp);
+            }
+        }
+    }
+
+    private static Path tempFile(List<Path> temps) throws IOException {
+        Path temp = Files.createTempFile("strindex-", ".tmp");
+        temps.add(temp);
+        return temp;
+    }
+
+    private static int writeVarint(OutputStream output, int value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7F) != 0) {
+            output.write(value & 0x7F | 0x80);
+            value >>>= 7;
+            written++;
+        }
+        output.write(value);
+        return written;
+    }
+
+    /**
+     * Opens indexFile, first indexing the extractedStrings of the artifacts file into it for
+     * analyses stored before the index existed.
+     * @return null when there is no index and the document has no extractedStrings
+     */
+    public static StringIndex open(Path indexFile, Path artifactsFile) throws IOException {
+        return Files.isRegularFile(indexFile) ? open(indexFile) : build(artifactsFile, indexFile);
+    }
+
+    private static StringIndex build(Path artifactsFile, Path indexFile) throws IOException {
+        byte[] document = ReportCodec.read(artifactsFile);
+        String text;
+        try {
+            text = extractedStrings(factory.createParser(document));
+        } catch (JsonParseException e) {
+            // Written as Latin-1 by old versions, as the artifacts servlet also allows for
+            text = extractedStrings(factory.createParser(new String(document, StandardCharsets.ISO_8859_1)));
+        }
+        if (text == null) {
+            return null;
+        }
+        String strings = text;
+        ReportStore.writeAtomically(indexFile, output -> write(new StringReader(strings), output));
+        return open(indexFile);
+    }
+
+    private static String extractedStrings(JsonParser parser) throws IOException {
+        try (JsonParser document = parser) {
+            if (document.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (document.nextToken() == JsonToken.FIELD_NAME) {
+                String field = document.getCurrentName();
+                document.nextToken();
+                if ("extractedStrings".equals(field)) {
+                    return document.getValueAsString();
+                }
+                document.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    private static int trigram(byte[] bytes, int offset) {
+        return fold(bytes[offset]) << 16 | fold(bytes[offset + 1]) << 8 | fold(bytes[offset + 2]);
+    }
+
+    private static int fold(byte b) {
+        int value = b & 0xFF;
+        return value >= 'A' && value <= 'Z' ? value + 32 : value;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public String getLine(int line) {
+        int start = data.getInt(HEADER_SIZE + 4 * line);
+        int end = data.getInt(HEADER_SIZE + 4 * (line + 1));
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = data.duplicate();
+        view.position(textStart + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lines that can satisfy every clause, in ascending order, or null when the clauses
+     * rule no line out (no clause has a literal of three bytes or more).
+     */
+    public int[] candidates(List<List<String>> required) {
+        int[] result = null;
+        for (List<String> clause : required) {
+            int[] clauseLines = clauseLines(clause);
+            if (clauseLines != null) {
+                result = result == null ? clauseLines : intersect(result, clauseLines);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lines holding any of the literals, or null when one of them is too short to index.
+     */
+    private int[] clauseLines(List<String> literals) {
+        int[] lines = new int[0];
+        for (String literal : literals) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < 3) {
+                return null;
+            }
+            int[] literalLines = null;
+            for (int i = 0; i + 2 < bytes.length && (literalLines == null || literalLines.length > 0); i++) {
+                int[] trigramLines = postings(trigram(bytes, i));
+                literalLines = literalLines == null ? trigramLines : intersect(literalLines, trigramLines);
+            }
+            lines = union(lines, literalLines);
+        }
+        return lines;
+    }
+
+    private int[] postings(int key) {
+        int low = 0;
+        int high = trigramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = data.getInt(trigramsStart + 4 * middle);
+            if (found < key) {
+                low = middle + 1;
+            } else if (found > key) {
+                high = middle - 1;
+            } else {
+                return decode(data.getInt(postingOffsetsStart + 4 * middle),
+                        data.getInt(postingOffsetsStart + 4 * (middle + 1)));
+            }
+        }
+        return new int[0];
+    }
+
+    private int[] decode(int from, int to) {
+        // Every entry takes at least one byte
+        int[] lines = new int[to - from];
+        int count = 0;
+        int line = -1;
+        int position = postingsStart + from;
+        int end = postingsStart + to;
+        while (position < end) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            line += delta + 1;
+            lines[count++] = line;
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || a[i] > b[j]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * (trigram, line) postings packed as trigram << 32 | line, collected in sorted runs.
+     */
+    private static final class PostingRuns {
+        private final List<Path> temps;
+        private final List<Path> spilled = new ArrayList<>();
+        private final List<Integer> spilledSizes = new ArrayList<>();
+        private long[] buffer = new long[4096];
+        private int size;
+
+        private PostingRuns(List<Path> temps) {
+            this.temps = temps;
+        }
+
+        private void add(long posting) throws IOException {
+            if (size == buffer.length) {
+                if (buffer.length >= RUN_CAPACITY) {
+                    spill();
+                } else {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(RUN_CAPACITY, buffer.length * 2L));
+                }
+            }
+            buffer[size++] = posting;
+        }
+
+        private void spill() throws IOException {
+            Arrays.sort(buffer, 0, size);
+            Path run = tempFile(temps);
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+                for (int i = 0; i < size; i++) {
+                    output.writeLong(buffer[i]);
+                }
+            }
+            spilled.add(run);
+            spilledSizes.add(size);
+            size = 0;
+        }
+
+        /**
+         * Every posting in ascending order, the spilled runs merged with the one still in memory.
+         */
+        private Merge merge() throws IOException {
+            Arrays.sort(buffer, 0, size);
+            Merge merge = new Merge();
+            try {
+                merge.add(new RunCursor(null, buffer, size));
+                for (int r = 0; r < spilled.size(); r++) {
+                    DataInputStream input = new DataInputStream(
+                            new BufferedInputStream(Files.newInputStream(spilled.get(r)), BUFFER_SIZE));
+                    merge.inputs.add(input);
+                    merge.add(new RunCursor(input, null, spilledSizes.get(r)));
+                }
+            } catch (IOException e) {
+                merge.close();
+                throw e;
+            }
+            return merge;
+        }
+
+        private static final class Merge implements Closeable {
+            private final PriorityQueue<RunCursor> queue =
+                    new PriorityQueue<>(Comparator.comparingLong((RunCursor run) -> run.current));
+            private final List<DataInputStream> inputs = new ArrayList<>();
+
+            private void add(RunCursor run) throws IOException {
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+
+            /**
+             * The next posting, or -1 after the last one.
+             */
+            private long next() throws IOException {
+                RunCursor run = queue.poll();
+                if (run == null) {
+                    return -1;
+                }
+                long posting = run.current;
+                add(run);
+                return posting;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (DataInputStream input : inputs) {
+                    input.close();
+                }
+            }
+        }
+
+        private static final class RunCursor {
+            private final DataInputStream input;
+            private final long[] postings;
+            private final int count;
+            private int read;
+            private long current;
+
+            private RunCursor(DataInputStream input, long[] postings, int count) {
+                this.input = input;
+                this.postings = postings;
+                this.count = count;
+            }
+
+            private boolean advance() throws IOException {
+                if (read == count) {
+                    return false;
+                }
+                current = input != null ? input.readLong() : postings[read];
+                read++;
+                return true;
+            }
+        }
+    }
+
+    private static final class GrowableBytes {
+        private byte[] data = new byte[64 * 1024];
+        private int size;
+
+        private void appendUtf8(int codePoint) {
+            ensure(4);
+            if (codePoint < 0x80) {
+                data[size++] = (byte) codePoint;
+            } else if (codePoint < 0x800) {
+                data[size++] = (byte) (0xC0 | codePoint >> 6);
+                data[size++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (codePoint < 0x10000) {
+                data[size++] = (byte) (0xE0 | codePoint >> 12);
+                data[size++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                data[size++] = (byte) (0x80 | codePoint & 0x3F);
+            } else {
+                data[size++] = (byte) (0xF0 | codePoint >> 18);
+                data[size++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                data[size++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                data[size++] = (byte) (0x80 | codePoint & 0x3F);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + extra, data.length * 2));
+            }
+        }
+    }
+}
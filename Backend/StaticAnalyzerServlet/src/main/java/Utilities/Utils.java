@@ -1,36 +1,16 @@
 package Utilities;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class Utils {
-    public static int rvaToOffset(byte[] fileBytes, int peHeaderOffset, int rva) {
-        int numberOfSections = readWord(fileBytes, peHeaderOffset + 6);
-        int sizeOfOptionalHeader = readWord(fileBytes, peHeaderOffset + 20);
-        int sectionTableOffset = peHeaderOffset + 24 + sizeOfOptionalHeader;
-
-        for (int i = 0; i < numberOfSections; i++) {
-            int sectionOffset = sectionTableOffset + (i * 40);
-            if (sectionOffset + 40 > fileBytes.length)
-                break;
-
-            int virtualAddress = readDWord(fileBytes, sectionOffset + 12);
-            int virtualSize = readDWord(fileBytes, sectionOffset + 8);
-            int pointerToRawData = readDWord(fileBytes, sectionOffset + 20);
-            int sizeOfRawData = readDWord(fileBytes, sectionOffset + 16);
-
-            if (rva >= virtualAddress && rva < virtualAddress + virtualSize) {
-                if (sizeOfRawData == 0) {
-                    return rva;
-                }
-                return pointerToRawData + (rva - virtualAddress);
-            }
-        }
-        return -1;
-    }
-
     public static String readNullTerminatedString(byte[] bytes, int offset) {
         StringBuilder sb = new StringBuilder();
         while (offset < bytes.length && bytes[offset] != 0) {
@@ -54,6 +34,73 @@ public class Utils {
                 .order(ByteOrder.LITTLE_ENDIAN).getInt();
     }
 
+    public static String readNullTerminatedString(ByteBuffer buffer, int offset) {
+        StringBuilder sb = new StringBuilder();
+        int limit = buffer.limit();
+        while (offset >= 0 && offset < limit && buffer.get(offset) != 0) {
+            sb.append((char) buffer.get(offset));
+            offset++;
+        }
+        return sb.toString();
+    }
+
+    // ByteBuffer readers assemble little-endian values byte by byte, so they work on
+    // any view of the file regardless of the buffer's byte order and position
+    public static int readWord(ByteBuffer buffer, int offset) {
+        if (offset < 0 || offset + 2 > buffer.limit())
+            return 0;
+        return (buffer.get(offset) & 0xFF) | (buffer.get(offset + 1) & 0xFF) << 8;
+    }
+
+    public static int readDWord(ByteBuffer buffer, int offset) {
+        if (offset < 0 || offset + 4 > buffer.limit())
+            return 0;
+        return (buffer.get(offset) & 0xFF)
+                | (buffer.get(offset + 1) & 0xFF) << 8
+                | (buffer.get(offset + 2) & 0xFF) << 16
+                | (buffer.get(offset + 3) & 0xFF) << 24;
+    }
+
+    public static long readQWord(ByteBuffer buffer, int offset) {
+        if (offset < 0 || offset + 8 > buffer.limit())
+            return 0;
+        return (readDWord(buffer, offset) & 0xFFFFFFFFL)
+                | ((long) readDWord(buffer, offset + 4)) << 32;
+    }
+
+    /**
+     * Returns an independent view of length bytes starting at offset, without copying.
+     */
+    public static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    /**
+     * Memory-maps the whole file read-only. The mapping stays valid after the
+     * channel is closed and is released when the buffer is garbage collected.
+     */
+    public static ByteBuffer mapReadOnly(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Deletes a temp file, deferring to JVM exit when the file is still locked
+     * (Windows refuses to delete a file while a mapping of it is still reachable).
+     */
+    public static void deleteTempFile(Path tempFile) {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + tempFile + ", deferring to exit: " + e.getMessage());
+            tempFile.toFile().deleteOnExit();
+        }
+    }
+
     public static String bytesToHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder(bytes.length * 2);
         for (byte b : bytes) {